@@ -1,76 +1,43 @@
 package il.org.osm.israelhiking;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
-import org.locationtech.jts.geom.Coordinate;
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import jakarta.json.stream.JsonGenerator;
+
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Polygon;
 
+/** Written by {@link DocumentWriters}, which must follow any change to the fields. */
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class BBoxDocument {
+public class BBoxDocument implements JsonpSerializable {
     public Map<String, String> name = new HashMap<String, String>();
-    public Map<String, Object> bbox;
+    /**
+     * The lat/lon polygon, kept as is: its coordinates are streamed into the
+     * GeoJSON shape of the bulk request, without an intermediate structure.
+     */
+    @JsonIgnore
+    public Geometry bbox;
     public double area;
     public double[] center;
     /** OSM admin_level (2 = country, 0 when not an admin boundary); read back to enrich points. */
     public int adminLevel;
 
-    public void setBBox(Geometry geometry) {
-        bbox = new HashMap<String, Object>();
-        bbox.put("type", geometry.getGeometryType().toLowerCase());
-        bbox.put("coordinates", convertJTSToGeoJson(geometry));
-    }
-
-    private Object convertJTSToGeoJson(Geometry geometry) {
-        if (geometry instanceof Polygon) {
-            return convertPolygonToGeoJson((Polygon) geometry);
-        } else if (geometry instanceof MultiPolygon) {
-            return convertMultiPolygonToGeoJson((MultiPolygon) geometry);
-        }
-        throw new UnsupportedOperationException("Geometry type not supported: " + geometry.getGeometryType());
+    @Override
+    public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+        DocumentWriters.write(this, DocumentWriters.jackson(generator));
     }
 
-    private List<List<List<Double>>> convertPolygonToGeoJson(Polygon polygon) {
-        List<List<List<Double>>> polygonCoordinates = new ArrayList<>();
-
-        // Add exterior ring
-        polygonCoordinates.add(convertLinearRingToList(polygon.getExteriorRing()));
-
-        // Add interior rings (holes)
-        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
-            polygonCoordinates.add(convertLinearRingToList(polygon.getInteriorRingN(i)));
-        }
-
-        return polygonCoordinates;
-    }
-
-    private List<List<List<List<Double>>>> convertMultiPolygonToGeoJson(MultiPolygon multiPolygon) {
-        List<List<List<List<Double>>>> multiPolygonCoordinates = new ArrayList<>();
-
-        for (int i = 0; i < multiPolygon.getNumGeometries(); i++) {
-            Polygon polygon = (Polygon) multiPolygon.getGeometryN(i);
-            multiPolygonCoordinates.add(convertPolygonToGeoJson(polygon));
-        }
-
-        return multiPolygonCoordinates;
-    }
-
-    private List<List<Double>> convertLinearRingToList(LineString ring) {
-        List<List<Double>> coordinates = new ArrayList<>();
-        Coordinate[] coords = ring.getCoordinates();
-
-        for (Coordinate coord : coords) {
-            coordinates.add(Arrays.asList(coord.x, coord.y));
+    public void setBBox(Geometry geometry) {
+        if (!(geometry instanceof Polygon) && !(geometry instanceof MultiPolygon)) {
+            throw new UnsupportedOperationException("Geometry type not supported: " + geometry.getGeometryType());
         }
-
-        return coordinates;
+        bbox = geometry;
     }
 }
@@ -0,0 +1,214 @@
+package il.org.osm.israelhiking;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.util.GeometryFixer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the bounding box polygons for indexing off the Planetiler worker
+ * that read them: simplifying, validating and, when needed, repairing a
+ * country outline takes seconds, and the worker has other features to go on
+ * with. The queue is bounded, so the polygons waiting here do not pile up in
+ * the heap; when it is full, the worker waits for a slot.
+ *
+ * The polygon is simplified first and validated after, since the simplified
+ * outline is a fraction of the size and the validity check is the most
+ * expensive step. That is safe because the result is validated anyway, and
+ * repairing an invalid simplified outline moves it by at most the simplifier
+ * tolerance.
+ *
+ * The time budget covers the whole preparation: past it, the simplifier goes
+ * straight to its coarsest tolerance, which keeps both the validity check and
+ * the repair small. The budget only changes how a polygon is prepared, never
+ * whether it is indexed: the huge invalid country and coastline outlines are
+ * the ones that pass it, and a missing one would take the container of every
+ * point in it away. When even the repair does not give a valid polygon, the
+ * outline is indexed as {@code buffer(0)} or, failing that, as its convex
+ * hull.
+ */
+final class BBoxStage implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(BBoxStage.class);
+
+  static final int QUEUE_CAPACITY = 256;
+  /** The time after which the simplifier stops refining and goes coarse. */
+  static final long TIME_BUDGET_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  private final ContainerSimplifier simplifier;
+  private final long budgetNanos;
+  private final ExecutorService pool;
+  /** The slots of the queue and of the threads, which a submit waits for. */
+  private final Semaphore slots;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final TimingHistogram prepareTimes = new TimingHistogram("Bounding box preparation");
+  private final TimingHistogram repairTimes = new TimingHistogram("Bounding box repairs");
+  private final LongAdder overBudget = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder fallbacks = new LongAdder();
+
+  BBoxStage(int threads, ContainerSimplifier simplifier) {
+    this(threads, QUEUE_CAPACITY, simplifier, TIME_BUDGET_NANOS);
+  }
+
+  BBoxStage(int threads, int queueCapacity, ContainerSimplifier simplifier, long budgetNanos) {
+    this.simplifier = simplifier;
+    this.budgetNanos = budgetNanos;
+    this.slots = new Semaphore(threads + queueCapacity);
+    var threadNumber = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+      var thread = new Thread(runnable, "bbox-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Prepares the polygon and hands it to the indexer, unless not even its
+   * convex hull is a polygon. Waits while the queue is full.
+   *
+   * @param polygon a lat/lon polygon, possibly invalid
+   */
+  void submit(String documentId, Geometry polygon, double areaMeters, Consumer<Geometry> indexer) {
+    slots.acquireUninterruptibly();
+    pending.incrementAndGet();
+    pool.execute(() -> {
+      try {
+        Geometry prepared = prepare(documentId, polygon, areaMeters);
+        if (prepared != null) {
+          indexer.accept(prepared);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.warn("Failed to prepare the bounding box of {}: {}", documentId, e.getMessage());
+      } finally {
+        slots.release();
+        if (pending.decrementAndGet() == 0) {
+          synchronized (pending) {
+            pending.notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /** @return a valid polygon within its vertex budget, or null when it has no area at all */
+  Geometry prepare(String documentId, Geometry polygon, double areaMeters) {
+    long start = System.nanoTime();
+    try {
+      Geometry simplified = simplifier.simplify(polygon, areaMeters, budgetNanos);
+      if (isIndexable(simplified)) {
+        return simplified;
+      }
+      long repairStart = System.nanoTime();
+      Geometry fixed = repair(simplified);
+      repairTimes.record(System.nanoTime() - repairStart);
+      if (isIndexable(fixed)) {
+        return fixed;
+      }
+      Geometry fallback = fallback(simplified);
+      if (fallback != null) {
+        fallbacks.increment();
+        LOGGER.warn("Indexed the bounding box of {} with {} vertices as a fallback outline, it could not be"
+            + " repaired", documentId, simplified.getNumPoints());
+        return fallback;
+      }
+      rejected.increment();
+      return null;
+    } finally {
+      long elapsed = System.nanoTime() - start;
+      prepareTimes.record(elapsed);
+      if (elapsed > budgetNanos) {
+        overBudget.increment();
+        LOGGER.warn("The bounding box of {} with {} vertices took {} ms", documentId, polygon.getNumPoints(),
+            TimeUnit.NANOSECONDS.toMillis(elapsed));
+      }
+    }
+  }
+
+  private static Geometry repair(Geometry polygon) {
+    try {
+      return GeometryFixer.fix(polygon);
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  /** @return the outline as buffer(0), or else as its convex hull, or null when neither is a polygon */
+  private static Geometry fallback(Geometry polygon) {
+    try {
+      Geometry buffered = polygon.buffer(0);
+      if (isIndexable(buffered)) {
+        return buffered;
+      }
+    } catch (RuntimeException e) {
+      // The convex hull below does not depend on the topology of the outline
+    }
+    Geometry hull = polygon.convexHull();
+    return isIndexable(hull) ? hull : null;
+  }
+
+  private static boolean isIndexable(Geometry polygon) {
+    return polygon instanceof Polygonal && !polygon.isEmpty() && polygon.isValid();
+  }
+
+  /**
+   * Waits until every submitted polygon was indexed or dropped.
+   *
+   * @throws IllegalStateException when interrupted, since the polygons still
+   *                               pending would be missing from the index
+   */
+  void drain() {
+    synchronized (pending) {
+      while (pending.get() > 0) {
+        try {
+          pending.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException(
+              "Interrupted while " + pending.get() + " bounding boxes were still being prepared", e);
+        }
+      }
+    }
+  }
+
+  TimingHistogram getPrepareTimes() {
+    return prepareTimes;
+  }
+
+  TimingHistogram getRepairTimes() {
+    return repairTimes;
+  }
+
+  long getOverBudget() {
+    return overBudget.sum();
+  }
+
+  long getRejected() {
+    return rejected.sum();
+  }
+
+  long getFallbacks() {
+    return fallbacks.sum();
+  }
+
+  void logSummary() {
+    LOGGER.info(prepareTimes.summary());
+    LOGGER.info(repairTimes.summary());
+    LOGGER.info("Bounding boxes: {} over the {} ms budget, {} indexed as a fallback outline, {} without an area"
+        + " dropped", overBudget.sum(), TimeUnit.NANOSECONDS.toMillis(budgetNanos), fallbacks.sum(),
+        rejected.sum());
+  }
+
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
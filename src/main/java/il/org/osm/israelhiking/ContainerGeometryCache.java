@@ -0,0 +1,214 @@
+package il.org.osm.israelhiking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the prepared bounding box polygons between builds, in a local file:
+ * admin boundaries and parks rarely change, and repairing and simplifying
+ * them is the most expensive part of indexing them. An entry is keyed by the
+ * vector tile feature id of the element, which tells nodes, ways and
+ * relations apart, and is only reused when the hash of the raw polygon still
+ * matches, so an edited boundary is prepared again.
+ *
+ * A build reads the entries of the previous build and writes back only those
+ * it used or added, so a deleted boundary drops out after one build. Lookups
+ * and additions are thread-safe.
+ */
+final class ContainerGeometryCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContainerGeometryCache.class);
+
+  private static final int MAGIC = 0x43474331; // "CGC1"
+  /**
+   * Bump whenever the preparation changes, see {@link BBoxStage} and
+   * {@link ContainerSimplifier}, so that a build does not reuse polygons
+   * prepared the old way.
+   */
+  static final int FORMAT_VERSION = 1;
+
+  /** A prepared polygon, in lat/lon, with what was computed from the raw one. */
+  record Entry(Geometry geometry, double area, double[] center) {
+  }
+
+  private record Stored(long hash, double area, double centerX, double centerY, byte[] wkb) {
+  }
+
+  private final Path path;
+  private final Map<Long, Stored> previous;
+  private final ConcurrentHashMap<Long, Stored> current = new ConcurrentHashMap<>();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private ContainerGeometryCache(Path path, Map<Long, Stored> previous) {
+    this.path = path;
+    this.previous = previous;
+  }
+
+  /** A cache that never hits and saves nothing. */
+  static ContainerGeometryCache disabled() {
+    return new ContainerGeometryCache(null, Map.of());
+  }
+
+  /**
+   * Reads the entries of the previous build. A missing, outdated or corrupt
+   * file yields an empty cache, which {@link #save} then replaces.
+   */
+  static ContainerGeometryCache load(Path path) {
+    if (path == null) {
+      LOGGER.info("Container geometry cache: disabled");
+      return disabled();
+    }
+    if (!Files.exists(path)) {
+      LOGGER.info("Container geometry cache: no {} yet, every bounding box is prepared", path);
+      return new ContainerGeometryCache(path, Map.of());
+    }
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        LOGGER.info("Container geometry cache: {} is of another version, starting over", path);
+        return new ContainerGeometryCache(path, Map.of());
+      }
+      int count = in.readInt();
+      Map<Long, Stored> entries = new HashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        long key = in.readLong();
+        long hash = in.readLong();
+        double area = in.readDouble();
+        double centerX = in.readDouble();
+        double centerY = in.readDouble();
+        byte[] wkb = new byte[in.readInt()];
+        in.readFully(wkb);
+        entries.put(key, new Stored(hash, area, centerX, centerY, wkb));
+      }
+      LOGGER.info("Container geometry cache: loaded {} polygons from {}", count, path);
+      return new ContainerGeometryCache(path, entries);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Container geometry cache: failed to read {}, starting over: {}", path, e.getMessage());
+      return new ContainerGeometryCache(path, Map.of());
+    }
+  }
+
+  /** @return the prepared polygon of the element, or null when it is new or its polygon changed */
+  Entry get(long key, long hash) {
+    Stored stored = previous.get(key);
+    if (stored == null || stored.hash != hash) {
+      misses.increment();
+      return null;
+    }
+    Geometry geometry;
+    try {
+      geometry = new WKBReader().read(stored.wkb);
+    } catch (ParseException e) {
+      misses.increment();
+      return null;
+    }
+    current.put(key, stored);
+    hits.increment();
+    return new Entry(geometry, stored.area, new double[] { stored.centerX, stored.centerY });
+  }
+
+  void put(long key, long hash, Entry entry) {
+    if (path == null) {
+      return;
+    }
+    current.put(key, new Stored(hash, entry.area, entry.center[0], entry.center[1],
+        new WKBWriter().write(entry.geometry)));
+  }
+
+  /** Replaces the file with the entries this build used, through a temporary file. */
+  void save() throws IOException {
+    if (path == null) {
+      return;
+    }
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(current.size());
+        for (var entry : current.entrySet()) {
+          Stored stored = entry.getValue();
+          out.writeLong(entry.getKey());
+          out.writeLong(stored.hash);
+          out.writeDouble(stored.area);
+          out.writeDouble(stored.centerX);
+          out.writeDouble(stored.centerY);
+          out.writeInt(stored.wkb.length);
+          out.write(stored.wkb);
+        }
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    LOGGER.info("Container geometry cache: saved {} polygons to {}", current.size(), path);
+  }
+
+  /**
+   * A hash of every coordinate of the raw polygon, and of how they split into
+   * polygons and rings. Runs on the worker, so it must stay far cheaper than
+   * the preparation it saves: it reads the coordinate sequences in place.
+   */
+  static long hash(Geometry geometry) {
+    long hash = mix(0, geometry.getNumGeometries());
+    for (int i = 0; i < geometry.getNumGeometries(); i++) {
+      Geometry part = geometry.getGeometryN(i);
+      if (part instanceof Polygon polygon) {
+        hash = mix(hash, polygon.getNumInteriorRing());
+        hash = mix(hash, polygon.getExteriorRing().getCoordinateSequence());
+        for (int r = 0; r < polygon.getNumInteriorRing(); r++) {
+          hash = mix(hash, polygon.getInteriorRingN(r).getCoordinateSequence());
+        }
+      } else {
+        for (var coordinate : part.getCoordinates()) {
+          hash = mix(mix(hash, Double.doubleToLongBits(coordinate.x)), Double.doubleToLongBits(coordinate.y));
+        }
+      }
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, CoordinateSequence sequence) {
+    hash = mix(hash, sequence.size());
+    for (int i = 0; i < sequence.size(); i++) {
+      hash = mix(mix(hash, Double.doubleToLongBits(sequence.getX(i))), Double.doubleToLongBits(sequence.getY(i)));
+    }
+    return hash;
+  }
+
+  private static long mix(long hash, long value) {
+    return Long.rotateLeft(hash ^ (value * 0x9E3779B97F4A7C15L), 27) * 0xBF58476D1CE4E5B9L;
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  void logSummary() {
+    LOGGER.info("Container geometry cache: {} bounding boxes reused, {} prepared", hits.sum(), misses.sum());
+  }
+}
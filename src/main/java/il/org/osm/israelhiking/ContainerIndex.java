@@ -3,13 +3,18 @@ package il.org.osm.israelhiking;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LinearRing;
@@ -22,6 +27,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.GeoShapeRelation;
+import co.elastic.clients.json.JsonData;
 
 /**
  * An in-memory spatial index of container polygons, queried point-by-point to
@@ -38,6 +45,13 @@ import co.elastic.clients.elasticsearch.ElasticsearchClient;
  * points at the previous build's containers. Containers change rarely, so that
  * one-build lag is by design; a first-ever build finds no alias and tags
  * nothing.
+ *
+ * At load time the containers are also arranged in a containment tree — each
+ * one points at the smallest container that covers it whole — so once a point
+ * is known to be in a container, it is known to be in all of its ancestors too,
+ * without testing it against every country, region and district around it.
+ * Only the containers off that chain, like a park across a district line, are
+ * tested one by one.
  */
 final class ContainerIndex {
 
@@ -75,33 +89,82 @@ final class ContainerIndex {
     }
   }
 
-  private record Entry(ContainerRecord record, PreparedGeometry prepared) {
+  private static final class Entry {
+    final ContainerRecord record;
+    final PreparedGeometry prepared;
+    /** The smallest container that covers this one whole, null for a root. */
+    Entry parent;
+
+    Entry(ContainerRecord record) {
+      this.record = record;
+      this.prepared = PreparedGeometryFactory.prepare(record.geometry);
+    }
   }
 
+  private static final Comparator<Entry> BY_AREA = Comparator.comparingDouble(e -> e.record.area);
+
   private final STRtree tree = new STRtree();
   private final int loadedCount;
 
-  private ContainerIndex(Collection<ContainerRecord> records) {
+  ContainerIndex(Collection<ContainerRecord> records) {
+    List<Entry> entries = new ArrayList<>(records.size());
     for (ContainerRecord record : records) {
-      tree.insert(record.geometry.getEnvelopeInternal(),
-          new Entry(record, PreparedGeometryFactory.prepare(record.geometry)));
+      Entry entry = new Entry(record);
+      entries.add(entry);
+      tree.insert(record.geometry.getEnvelopeInternal(), entry);
     }
     tree.build();
+    linkParents(entries);
     this.loadedCount = records.size();
   }
 
+  /**
+   * Points every container at the smallest larger container that covers it.
+   * A container that only partly overlaps the others (a park across a district
+   * line) gets no parent there, so that a lookup never infers that a point is
+   * in a container it is not in.
+   */
+  private void linkParents(List<Entry> entries) {
+    for (Entry entry : entries) {
+      Point inside = entry.record.geometry.getInteriorPoint();
+      if (inside.isEmpty()) {
+        continue;
+      }
+      // Whatever covers the container also holds its interior point
+      for (Entry candidate : candidatesByArea(inside)) {
+        if (candidate != entry && candidate.record.area > entry.record.area
+            && candidate.prepared.covers(entry.record.geometry)) {
+          entry.parent = candidate;
+          break;
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Entry> candidatesByArea(Point point) {
+    List<Entry> candidates = tree.query(point.getEnvelopeInternal());
+    candidates.sort(BY_AREA);
+    return candidates;
+  }
+
   /**
    * Loads the previous build's containers from the bbox alias; no alias yet
    * yields an empty index.
+   *
+   * @param bounds the lat/lon bounds of the extract being built - only the
+   *               containers that intersect them are loaded. Null loads them
+   *               all.
    */
-  static ContainerIndex load(ElasticsearchClient esClient, String bboxAlias) throws IOException {
+  static ContainerIndex load(ElasticsearchClient esClient, String bboxAlias, Envelope bounds) throws IOException {
     if (!esClient.indices().existsAlias(a -> a.name(bboxAlias)).value()) {
       LOGGER.info("Container index: no '{}' index yet — this build tags no points", bboxAlias);
       return new ContainerIndex(List.of());
     }
     try {
-      List<ContainerRecord> records = scroll(esClient, bboxAlias);
-      LOGGER.info("Container index: loaded {} containers from '{}'", records.size(), bboxAlias);
+      List<ContainerRecord> records = scroll(esClient, bboxAlias, bounds);
+      LOGGER.info("Container index: loaded {} containers from '{}' within {}", records.size(), bboxAlias,
+          bounds == null ? "the whole world" : bounds);
       return new ContainerIndex(records);
     } catch (Exception e) {
       LOGGER.error("Container index: failed to load containers from '{}'", bboxAlias, e);
@@ -109,29 +172,47 @@ final class ContainerIndex {
     }
   }
 
-  /** The containers that enclose the given coordinate, in no particular order. */
+  /**
+   * The containers that enclose the given coordinate, from the tightest one out.
+   * A container the point is in vouches for its ancestors, which cover it; the
+   * other candidates are tested one by one.
+   */
   List<ContainerRecord> containing(double lat, double lng) {
     if (loadedCount == 0) {
       return List.of();
     }
     Point point = GEOMETRY_FACTORY.createPoint(new Coordinate(lng, lat));
+    List<Entry> candidates = candidatesByArea(point);
+    Set<Entry> known = Collections.newSetFromMap(new IdentityHashMap<>());
     List<ContainerRecord> hits = new ArrayList<>();
-    for (Object candidate : tree.query(point.getEnvelopeInternal())) {
-      Entry entry = (Entry) candidate;
-      if (entry.prepared().contains(point)) {
-        hits.add(entry.record());
+    // By area, so that a parent always comes after the container it covers
+    for (Entry candidate : candidates) {
+      if (known.contains(candidate) || candidate.prepared.contains(point)) {
+        hits.add(candidate.record);
+        Entry parent = candidate.parent;
+        while (parent != null && known.add(parent)) {
+          parent = parent.parent;
+        }
       }
     }
     return hits;
   }
 
-  private static List<ContainerRecord> scroll(ElasticsearchClient esClient, String bboxAlias) throws IOException {
+  private static List<ContainerRecord> scroll(ElasticsearchClient esClient, String bboxAlias, Envelope bounds)
+      throws IOException {
     List<ContainerRecord> records = new ArrayList<>();
     var response = esClient.search(s -> s
         .index(bboxAlias)
         .scroll(t -> t.time(SCROLL_KEEPALIVE))
         .size(SCROLL_SIZE)
-        .query(q -> q.matchAll(m -> m)), JsonNode.class);
+        .query(q -> bounds == null
+            ? q.matchAll(m -> m)
+            : q.geoShape(g -> g
+                .field("bbox")
+                .shape(sh -> sh
+                    .relation(GeoShapeRelation.Intersects)
+                    .shape(JsonData.of(envelopeToGeoJson(bounds)))))),
+        JsonNode.class);
     String scrollId = response.scrollId();
     try {
       var hits = response.hits().hits();
@@ -155,6 +236,15 @@ final class ContainerIndex {
     return records;
   }
 
+  /** An Elasticsearch envelope shape, upper left corner first. */
+  private static Map<String, Object> envelopeToGeoJson(Envelope bounds) {
+    return Map.of(
+        "type", "envelope",
+        "coordinates", List.of(
+            List.of(bounds.getMinX(), bounds.getMaxY()),
+            List.of(bounds.getMaxX(), bounds.getMinY())));
+  }
+
   private static ContainerRecord toRecord(JsonNode source) {
     if (source == null) {
       return null;
@@ -0,0 +1,137 @@
+package il.org.osm.israelhiking;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simplifies container polygons down to a vertex budget that grows with the
+ * size of the container, instead of using one tolerance for all of them: a
+ * country with a long coastline is trimmed hard, while a village polygon that
+ * is already within its budget is left as is. The tolerance is also capped
+ * by the size of the polygon, so that a small settlement that is over its
+ * budget keeps its shape rather than its budget. Fewer vertices make both the
+ * bbox geo_shape indexing and the in-memory containment tests cheaper.
+ * Thread-safe, the counters feed the build report.
+ */
+final class ContainerSimplifier {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ContainerSimplifier.class);
+
+  static final int MIN_VERTICES = 32;
+  static final int MAX_VERTICES = 4_000;
+  /** Budget per km of the side of a square of the same area. */
+  static final double VERTICES_PER_KM = 16;
+  /** ~1 m, containment near a border is fuzzy anyway. */
+  static final double MIN_TOLERANCE_DEGREES = 0.00001;
+  /** ~1 km, the coarsest a country outline is allowed to get. */
+  static final double MAX_TOLERANCE_DEGREES = 0.01;
+  /**
+   * The coarsest tolerance relative to the side of a square of the same area,
+   * which moves the outline of a compact polygon by no more than a few percent
+   * of its area.
+   */
+  static final double MAX_RELATIVE_TOLERANCE = 0.005;
+  private static final double METERS_PER_DEGREE = 111_320;
+
+  private final LongAdder polygons = new LongAdder();
+  private final LongAdder verticesBefore = new LongAdder();
+  private final LongAdder verticesAfter = new LongAdder();
+  private final LongAdder overBudget = new LongAdder();
+
+  /** The number of vertices a container of the given area may keep. */
+  static int vertexBudget(double areaMeters) {
+    if (Double.isNaN(areaMeters) || areaMeters <= 0) {
+      return MIN_VERTICES;
+    }
+    double sideKm = Math.sqrt(areaMeters) / 1000;
+    return (int) Math.max(MIN_VERTICES, Math.min(MAX_VERTICES, Math.round(VERTICES_PER_KM * sideKm)));
+  }
+
+  /**
+   * The coarsest tolerance a container of the given area may be simplified
+   * with, in degrees: {@link #MAX_RELATIVE_TOLERANCE} of its size, and never
+   * more than {@link #MAX_TOLERANCE_DEGREES}.
+   */
+  static double maxTolerance(double areaMeters) {
+    if (Double.isNaN(areaMeters) || areaMeters <= 0) {
+      return 0;
+    }
+    return Math.min(MAX_TOLERANCE_DEGREES, MAX_RELATIVE_TOLERANCE * Math.sqrt(areaMeters) / METERS_PER_DEGREE);
+  }
+
+  /**
+   * @param polygon    a valid lat/lon polygon
+   * @param areaMeters the area of the polygon, in m²
+   * @return the polygon, simplified until it fits its vertex budget or the
+   *         tolerance reaches {@link #maxTolerance}
+   */
+  Geometry simplify(Geometry polygon, double areaMeters) {
+    return simplify(polygon, areaMeters, Long.MAX_VALUE);
+  }
+
+  /**
+   * Like {@link #simplify(Geometry, double)}, but once the given time is
+   * spent, the next round goes straight to the {@link #maxTolerance}
+   * instead of doubling the tolerance again, so a huge outline costs at most
+   * one more, cheap, round.
+   */
+  Geometry simplify(Geometry polygon, double areaMeters, long budgetNanos) {
+    long start = System.nanoTime();
+    int before = polygon.getNumPoints();
+    int budget = vertexBudget(areaMeters);
+    double maxTolerance = maxTolerance(areaMeters);
+    Geometry result = polygon;
+    // Below the finest tolerance, a polygon is too small to simplify at all
+    if (before > budget && maxTolerance >= MIN_TOLERANCE_DEGREES) {
+      // Start from the tolerance that would spread the budget evenly along the
+      // outline, and coarsen the previous result until it fits.
+      double tolerance = clampTolerance(polygon.getLength() / budget / 4, maxTolerance);
+      try {
+        while (true) {
+          result = TopologyPreservingSimplifier.simplify(result, tolerance);
+          if (result.getNumPoints() <= budget || tolerance >= maxTolerance) {
+            break;
+          }
+          if (System.nanoTime() - start > budgetNanos) {
+            overBudget.increment();
+            tolerance = maxTolerance;
+          } else {
+            tolerance = clampTolerance(tolerance * 2, maxTolerance);
+          }
+        }
+      } catch (RuntimeException e) {
+        result = polygon;
+      }
+    }
+    polygons.increment();
+    verticesBefore.add(before);
+    verticesAfter.add(result.getNumPoints());
+    return result;
+  }
+
+  private static double clampTolerance(double tolerance, double maxTolerance) {
+    return Math.max(MIN_TOLERANCE_DEGREES, Math.min(maxTolerance, tolerance));
+  }
+
+  long getVerticesBefore() {
+    return verticesBefore.sum();
+  }
+
+  long getVerticesAfter() {
+    return verticesAfter.sum();
+  }
+
+  long getOverBudget() {
+    return overBudget.sum();
+  }
+
+  void logSummary() {
+    long before = getVerticesBefore();
+    long after = getVerticesAfter();
+    LOGGER.info("Container simplification: {} polygons, {} vertices before, {} after ({}%), {} over time budget",
+        polygons.sum(), before, after, before == 0 ? 100 : Math.round(100.0 * after / before), overBudget.sum());
+  }
+}
@@ -0,0 +1,85 @@
+package il.org.osm.israelhiking;
+
+/**
+ * The difficulty of a trail, from the OSM scales that describe it. The values
+ * are matched by length and characters, since they come from a small fixed
+ * set and are read for every named way.
+ */
+enum Difficulty {
+  EASY("Easy"),
+  MODERATE("Moderate"),
+  HARD("Hard"),
+  VERY_HARD("Very Hard");
+
+  /** The value of poiDifficulty. */
+  final String label;
+
+  Difficulty(String label) {
+    this.label = label;
+  }
+
+  /** none, T1, T2, T3 to T6; null for anything else. */
+  static Difficulty fromSacScale(String value) {
+    if (value == null) {
+      return null;
+    }
+    if (value.length() == 2 && value.charAt(0) == 'T') {
+      switch (value.charAt(1)) {
+        case '1':
+          return MODERATE;
+        case '2':
+          return HARD;
+        case '3':
+        case '4':
+        case '5':
+        case '6':
+          return VERY_HARD;
+        default:
+          return null;
+      }
+    }
+    return "none".equals(value) ? EASY : null;
+  }
+
+  /** 0, 1, 2, 3 to 6; null for anything else. */
+  static Difficulty fromMtbScale(String value) {
+    if (value == null || value.length() != 1) {
+      return null;
+    }
+    switch (value.charAt(0)) {
+      case '0':
+        return EASY;
+      case '1':
+        return MODERATE;
+      case '2':
+        return HARD;
+      case '3':
+      case '4':
+      case '5':
+      case '6':
+        return VERY_HARD;
+      default:
+        return null;
+    }
+  }
+
+  /** grade1 and grade2, grade3, grade4, grade5; null for anything else. */
+  static Difficulty fromTracktype(String value) {
+    if (value == null || value.length() != 6 || !value.startsWith("grade")) {
+      return null;
+    }
+    switch (value.charAt(5)) {
+      case '1':
+      case '2':
+        return EASY;
+      case '3':
+        return MODERATE;
+      case '4':
+        return HARD;
+      case '5':
+        return VERY_HARD;
+      default:
+        return null;
+    }
+  }
+}
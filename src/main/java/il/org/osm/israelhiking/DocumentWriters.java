@@ -0,0 +1,207 @@
+package il.org.osm.israelhiking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Polygon;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import co.elastic.clients.json.jackson.JacksonJsonpGenerator;
+
+/**
+ * Writes the documents the build indexes straight to the Jackson generator of
+ * the bulk request, instead of letting the mapper introspect them: the fields
+ * are written in declaration order, nulls are left out and numbers keep their
+ * Java type, exactly as the {@code JacksonJsonpMapper} of the client does, so
+ * the bytes are the same. A field added to a document must be added here too;
+ * DocumentWritersTest compares the two. The bbox shape is the exception the
+ * mapper cannot write: it is streamed from the JTS geometry.
+ */
+final class DocumentWriters {
+
+  private DocumentWriters() {
+  }
+
+  /**
+   * The Jackson generator under the client's generator. The client is always
+   * built with a {@code JacksonJsonpMapper}, see ElasticsearchHelper.
+   */
+  static JsonGenerator jackson(jakarta.json.stream.JsonGenerator generator) {
+    if (generator instanceof JacksonJsonpGenerator jacksonGenerator) {
+      return jacksonGenerator.jacksonGenerator();
+    }
+    throw new IllegalArgumentException("The documents can only be written with the JacksonJsonpMapper, not "
+        + generator.getClass().getName());
+  }
+
+  static void write(PointDocument document, JsonGenerator out) {
+    try {
+      out.writeStartObject();
+      writeStrings(out, "name", document.name);
+      writeStringLists(out, "alt_names", document.alt_names);
+      writeStrings(out, "description", document.description);
+      writeStringLists(out, "poiParentNames", document.poiParentNames);
+      writeStrings(out, "poiContainer", document.poiContainer);
+      writeStrings(out, "poiCountry", document.poiCountry);
+      writeString(out, "wikidata", document.wikidata);
+      writeString(out, "image", document.image);
+      writeString(out, "wikimedia_commons", document.wikimedia_commons);
+      writeString(out, "poiCategory", document.poiCategory);
+      writeString(out, "poiIcon", document.poiIcon);
+      writeString(out, "poiIconColor", document.poiIconColor);
+      writeString(out, "poiSource", document.poiSource);
+      writeString(out, "poiDifficulty", document.poiDifficulty);
+      out.writeFieldName("poiLength");
+      out.writeNumber(document.poiLength);
+      writeString(out, "website", document.website);
+      writeDoubles(out, "location", document.location);
+      if (document.poiProminence != null) {
+        out.writeFieldName("poiProminence");
+        out.writeNumber(document.poiProminence.floatValue());
+      }
+      if (document.poiAreaNormalized != null) {
+        out.writeFieldName("poiAreaNormalized");
+        out.writeNumber(document.poiAreaNormalized.floatValue());
+      }
+      if (document.intermittent != null) {
+        out.writeFieldName("intermittent");
+        out.writeBoolean(document.intermittent);
+      }
+      if (document.population != null) {
+        out.writeFieldName("population");
+        out.writeNumber(document.population.intValue());
+      }
+      writeString(out, "poiFeatureClass", document.poiFeatureClass);
+      out.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static void write(BBoxDocument document, JsonGenerator out) {
+    try {
+      out.writeStartObject();
+      writeStrings(out, "name", document.name);
+      if (document.bbox != null) {
+        out.writeFieldName("bbox");
+        writeShape(out, document.bbox);
+      }
+      out.writeFieldName("area");
+      out.writeNumber(document.area);
+      writeDoubles(out, "center", document.center);
+      out.writeFieldName("adminLevel");
+      out.writeNumber(document.adminLevel);
+      out.writeEndObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeString(JsonGenerator out, String field, String value) throws IOException {
+    if (value != null) {
+      out.writeStringField(field, value);
+    }
+  }
+
+  private static void writeDoubles(JsonGenerator out, String field, double[] values) throws IOException {
+    if (values == null) {
+      return;
+    }
+    out.writeFieldName(field);
+    out.writeStartArray();
+    for (double value : values) {
+      out.writeNumber(value);
+    }
+    out.writeEndArray();
+  }
+
+  private static void writeStrings(JsonGenerator out, String field, Map<String, String> values) throws IOException {
+    if (values == null) {
+      return;
+    }
+    out.writeFieldName(field);
+    out.writeStartObject();
+    for (var entry : values.entrySet()) {
+      out.writeFieldName(entry.getKey());
+      writeNullable(out, entry.getValue());
+    }
+    out.writeEndObject();
+  }
+
+  private static void writeStringLists(JsonGenerator out, String field, Map<String, List<String>> values)
+      throws IOException {
+    if (values == null) {
+      return;
+    }
+    out.writeFieldName(field);
+    out.writeStartObject();
+    for (var entry : values.entrySet()) {
+      out.writeFieldName(entry.getKey());
+      if (entry.getValue() == null) {
+        out.writeNull();
+        continue;
+      }
+      out.writeStartArray();
+      for (String value : entry.getValue()) {
+        writeNullable(out, value);
+      }
+      out.writeEndArray();
+    }
+    out.writeEndObject();
+  }
+
+  private static void writeNullable(JsonGenerator out, String value) throws IOException {
+    if (value == null) {
+      out.writeNull();
+    } else {
+      out.writeString(value);
+    }
+  }
+
+  /**
+   * A GeoJSON polygon or multipolygon, streamed from the coordinate sequences
+   * of the geometry. The coordinates come before the type, as they did when
+   * the shape was a HashMap.
+   */
+  private static void writeShape(JsonGenerator out, Geometry geometry) throws IOException {
+    out.writeStartObject();
+    out.writeFieldName("coordinates");
+    if (geometry instanceof Polygon polygon) {
+      writePolygon(out, polygon);
+    } else {
+      out.writeStartArray();
+      for (int i = 0; i < geometry.getNumGeometries(); i++) {
+        writePolygon(out, (Polygon) geometry.getGeometryN(i));
+      }
+      out.writeEndArray();
+    }
+    out.writeStringField("type", geometry.getGeometryType().toLowerCase(Locale.ROOT));
+    out.writeEndObject();
+  }
+
+  private static void writePolygon(JsonGenerator out, Polygon polygon) throws IOException {
+    out.writeStartArray();
+    writeRing(out, polygon.getExteriorRing().getCoordinateSequence());
+    for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+      writeRing(out, polygon.getInteriorRingN(i).getCoordinateSequence());
+    }
+    out.writeEndArray();
+  }
+
+  private static void writeRing(JsonGenerator out, CoordinateSequence ring) throws IOException {
+    out.writeStartArray();
+    for (int i = 0; i < ring.size(); i++) {
+      out.writeStartArray();
+      out.writeNumber(ring.getX(i));
+      out.writeNumber(ring.getY(i));
+      out.writeEndArray();
+    }
+    out.writeEndArray();
+  }
+}
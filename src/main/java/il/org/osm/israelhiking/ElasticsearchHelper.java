@@ -2,6 +2,7 @@ package il.org.osm.israelhiking;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
@@ -37,7 +38,8 @@ public class ElasticsearchHelper {
       String[] supportedLanguages,
       QRankLookup qrankLookup,
       BulkIndexer bulkListener,
-      ContainerIndex containerIndex) {
+      ContainerIndex containerIndex,
+      ContainerGeometryCache containerCache) {
   }
 
   /**
@@ -216,18 +218,28 @@ public class ElasticsearchHelper {
     });
   }
 
-  public static ElasticRunContext initRun(ElasticsearchClient esClient,
+  /**
+   * Creates the indices of this run right away, so that a build that cannot
+   * reach Elasticsearch fails before it starts, while the inputs of the
+   * profile are still loading, see {@link StartupSteps}.
+   *
+   * @return the context, once the inputs are loaded
+   */
+  static CompletableFuture<ElasticRunContext> startRun(
+      ElasticsearchClient esClient,
       BulkIndexer bulkListener,
       String pointsIndexAlias,
       String bboxIndexAlias,
       String[] supportedLanguages,
-      QRankLookup qrankLookup,
-      ContainerIndex containerIndex) throws Exception {
-    var targetPointsIndex = ElasticsearchHelper.createPointsIndex(esClient, pointsIndexAlias,
-        supportedLanguages);
-    var targetBBoxIndex = ElasticsearchHelper.createBBoxIndex(esClient, bboxIndexAlias, supportedLanguages);
-    return new ElasticRunContext(esClient, pointsIndexAlias, bboxIndexAlias, targetPointsIndex, targetBBoxIndex,
-        supportedLanguages, qrankLookup, bulkListener, containerIndex);
+      CompletableFuture<QRankLookup> qrankLookup,
+      CompletableFuture<ContainerIndex> containerIndex,
+      CompletableFuture<ContainerGeometryCache> containerCache) throws Exception {
+    var targetPointsIndex = createPointsIndex(esClient, pointsIndexAlias, supportedLanguages);
+    var targetBBoxIndex = createBBoxIndex(esClient, bboxIndexAlias, supportedLanguages);
+    return CompletableFuture.allOf(qrankLookup, containerIndex, containerCache)
+        .thenApply(ignored -> new ElasticRunContext(esClient, pointsIndexAlias, bboxIndexAlias,
+            targetPointsIndex, targetBBoxIndex, supportedLanguages, qrankLookup.join(), bulkListener,
+            containerIndex.join(), containerCache.join()));
   }
 
   /**
@@ -0,0 +1,76 @@
+package il.org.osm.israelhiking;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
+
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SourceFeature;
+
+/**
+ * The geometry of one feature as the handlers of the profile use it: where
+ * its POI goes, in world and in lat/lon coordinates, its area, and its
+ * polygon in lat/lon. Each is computed on first use and then shared by every
+ * handler of the feature, so a large multipolygon that is both a bounding box
+ * and a POI is projected once.
+ *
+ * One instance per feature, used by the thread that processes it; not
+ * thread-safe.
+ */
+final class FeatureGeometry {
+  private final SourceFeature feature;
+  private Point worldPoint;
+  private Coordinate lngLat;
+  private Coordinate centroidLngLat;
+  private Geometry latLonPolygon;
+  private double areaMeters = Double.NaN;
+
+  FeatureGeometry(SourceFeature feature) {
+    this.feature = feature;
+  }
+
+  /**
+   * Where the POI of the feature goes, in world coordinates: the centroid of
+   * a convex polygon or a point on its surface otherwise, and the first
+   * coordinate of anything else.
+   */
+  Point worldPoint() throws GeometryException {
+    if (worldPoint == null) {
+      worldPoint = feature.canBePolygon() ? (Point) feature.centroidIfConvex()
+          : GeoUtils.point(feature.worldGeometry().getCoordinate());
+    }
+    return worldPoint;
+  }
+
+  /** {@link #worldPoint()} as a document location: longitude, latitude. */
+  double[] location() throws GeometryException {
+    if (lngLat == null) {
+      lngLat = GeoUtils.worldToLatLonCoords(worldPoint()).getCoordinate();
+    }
+    return new double[] { lngLat.getX(), lngLat.getY() };
+  }
+
+  /** The centroid of the feature, as longitude, latitude. */
+  double[] centroidLocation() throws GeometryException {
+    if (centroidLngLat == null) {
+      centroidLngLat = GeoUtils.worldToLatLonCoords(feature.centroid()).getCoordinate();
+    }
+    return new double[] { centroidLngLat.getX(), centroidLngLat.getY() };
+  }
+
+  double areaMeters() throws GeometryException {
+    if (Double.isNaN(areaMeters)) {
+      areaMeters = feature.areaMeters();
+    }
+    return areaMeters;
+  }
+
+  /** The polygon of the feature in lat/lon, as read; it may be invalid. */
+  Geometry latLonPolygon() throws GeometryException {
+    if (latLonPolygon == null) {
+      latLonPolygon = GeoUtils.worldToLatLonCoords(feature.polygon());
+    }
+    return latLonPolygon;
+  }
+}
@@ -0,0 +1,91 @@
+package il.org.osm.israelhiking;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.onthegomap.planetiler.reader.WithTags;
+
+/**
+ * The tag keys of one language, resolved once when the profile is built, so
+ * that converting a feature does not concatenate "name:" + language for every
+ * feature and language. The "default" language reads the unsuffixed tags,
+ * i.e. name, alt_name etc.
+ */
+final class LanguageTagKeys {
+  static final String DEFAULT_LANGUAGE = "default";
+
+  final String language;
+  final String name;
+  final String description;
+  final String mtbName;
+  final String[] alternativeNames;
+
+  private LanguageTagKeys(String language, List<String> alternativeNameTags) {
+    var suffix = DEFAULT_LANGUAGE.equals(language) ? "" : ":" + language;
+    this.language = language;
+    this.name = "name" + suffix;
+    this.description = "description" + suffix;
+    this.mtbName = "mtb:name" + suffix;
+    this.alternativeNames = new String[alternativeNameTags.size()];
+    for (int i = 0; i < alternativeNames.length; i++) {
+      alternativeNames[i] = alternativeNameTags.get(i) + suffix;
+    }
+  }
+
+  static LanguageTagKeys forDefault(List<String> alternativeNameTags) {
+    return new LanguageTagKeys(DEFAULT_LANGUAGE, alternativeNameTags);
+  }
+
+  static LanguageTagKeys[] forLanguages(String[] languages, List<String> alternativeNameTags) {
+    var keys = new LanguageTagKeys[languages.length];
+    for (int i = 0; i < languages.length; i++) {
+      keys[i] = new LanguageTagKeys(languages[i], alternativeNameTags);
+    }
+    return keys;
+  }
+
+  /**
+   * The distinct, trimmed, ";" separated alternative names of the feature in
+   * this language, in tag order.
+   *
+   * @return null when there are none, so that a feature without alternative
+   *         names allocates nothing
+   */
+  List<String> alternativeNames(WithTags feature) {
+    List<String> names = null;
+    for (String key : alternativeNames) {
+      String value = feature.getString(key);
+      if (value == null) {
+        continue;
+      }
+      int length = value.length();
+      int start = 0;
+      while (start <= length) {
+        int end = value.indexOf(';', start);
+        if (end < 0) {
+          end = length;
+        }
+        int from = start;
+        int to = end;
+        while (from < to && value.charAt(from) <= ' ') {
+          from++;
+        }
+        while (to > from && value.charAt(to - 1) <= ' ') {
+          to--;
+        }
+        if (from < to) {
+          // substring returns the value itself when it is a single clean name
+          String name = value.substring(from, to);
+          if (names == null) {
+            names = new ArrayList<>(2);
+          }
+          if (!names.contains(name)) {
+            names.add(name);
+          }
+        }
+        start = end + 1;
+      }
+    }
+    return names;
+  }
+}
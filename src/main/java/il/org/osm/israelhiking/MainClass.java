@@ -2,11 +2,16 @@ package il.org.osm.israelhiking;
 
 import com.onthegomap.planetiler.Planetiler;
 import com.onthegomap.planetiler.config.Arguments;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.reader.osm.OsmInputFile;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Properties;
 
+import org.locationtech.jts.geom.Envelope;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,7 +55,15 @@ public class MainClass {
         if (templatesOnly) {
             var esClient = ElasticsearchHelper.createElasticsearchClient(esAddress);
             try {
-                SearchTemplates.register(esClient, ElasticsearchHelper.allLanguages(supportedLanguages));
+                var allLanguages = ElasticsearchHelper.allLanguages(supportedLanguages);
+                var contractChanges = SearchTemplates.contractChanges(esClient, allLanguages);
+                if (!contractChanges.isEmpty()) {
+                    throw new IllegalStateException("Refusing to update the search templates of " + esAddress
+                            + ", callers may still send what they no longer accept: "
+                            + String.join("; ", contractChanges)
+                            + ". Store the new query under a new template id and keep the old one");
+                }
+                SearchTemplates.register(esClient, allLanguages);
                 LOGGER.info("Updated the search templates of {}, the indices were left as they are", esAddress);
             } finally {
                 esClient.close();
@@ -72,30 +85,88 @@ public class MainClass {
         Planetiler planetiler = Planetiler.create(args);
 
         try (var esClient = ElasticsearchHelper.createElasticsearchClient(esAddress);
-                var bulkListener = new BulkIndexer(esClient)) {
+                var bulkListener = new BulkIndexer(esClient);
+                var startup = new StartupSteps()) {
             var externalFilePath = args.getString("external-file-path", "External file path", "");
             var qrankPath = args.getString("qrank-path",
                     "Path to qrank.csv.gz for the prominence signal (empty = run without it)", "");
-            var qrankLookup = QRankLookup.load(qrankPath.isBlank() ? null : Path.of(qrankPath));
             String area = args.getString("area", "geofabrik area to download", "israel-and-palestine");
-            var containerIndex = ContainerIndex.load(esClient, bboxIndexAlias);
-            var context = ElasticsearchHelper.initRun(esClient, bulkListener, pointsIndexAlias, bboxIndexAlias,
-                    supportedLanguages, qrankLookup, containerIndex);
-            var profile = new PlanetSearchProfile(planetiler.config(), context);
+            Path osmPath = Path.of("data", "sources", area + ".osm.pbf");
+            Envelope bounds = extractBounds(args, osmPath);
+            var containerCachePath = args.getString("container-cache-path",
+                    "File that keeps the prepared bounding box polygons between builds (empty = no cache)",
+                    Path.of("data", "container-cache.bin").toString());
+            // The inputs load while Planetiler downloads and first reads the
+            // extract; the profile waits for them at its first feature
+            var qrankLookup = startup.start("loading QRank",
+                    () -> QRankLookup.load(qrankPath.isBlank() ? null : Path.of(qrankPath)));
+            var containerIndex = startup.start("loading the containers",
+                    () -> ContainerIndex.load(esClient, bboxIndexAlias, bounds));
+            var containerCache = startup.start("loading the container cache",
+                    () -> ContainerGeometryCache
+                            .load(containerCachePath.isBlank() ? null : Path.of(containerCachePath)));
+            var context = ElasticsearchHelper.startRun(esClient, bulkListener, pointsIndexAlias,
+                    bboxIndexAlias, supportedLanguages, qrankLookup, containerIndex, containerCache);
+            var profile = new PlanetSearchProfile(planetiler.config(), supportedLanguages, context);
 
             planetiler.setProfile(profile);
             // override this default with osm_path="path/to/data.osm.pbf"
             // Geofabrik has no whole-planet file, so area=planet uses the aws:latest
             // s3://osm-pds mirror.
             String osmSourceUrl = "planet".equals(area) ? "aws:latest" : "geofabrik:" + area;
-            planetiler.addOsmSource("osm", Path.of("data", "sources", area + ".osm.pbf"), osmSourceUrl);
+            planetiler.addOsmSource("osm", osmPath, osmSourceUrl);
             if ("" != externalFilePath) {
                 planetiler.addGeoJsonSource("external", Path.of(externalFilePath));
             }
             planetiler.overwriteOutput(Path.of("data", "target", PlanetSearchProfile.POINTS_LAYER_NAME + ".pmtiles"));
+            // A step that failed already fails the build before the download
+            startup.throwIfAnyFailed();
             planetiler.run();
+            profile.logSummary();
 
-            ElasticsearchHelper.finalizeRun(context);
+            var runContext = StartupSteps.await(context);
+            // The build swaps the index as well, so a contract change is stored, but its callers should know
+            for (var contractChange : SearchTemplates.contractChanges(runContext.esClient(),
+                    ElasticsearchHelper.allLanguages(runContext.supportedLanguages()))) {
+                LOGGER.warn("Search template contract change: {}", contractChange);
+            }
+            ElasticsearchHelper.finalizeRun(runContext);
+            saveContainerCache(StartupSteps.await(containerCache));
+        }
+    }
+
+    /**
+     * Keeps the prepared polygons for the next build. Only once the indices
+     * were switched over, and without failing the build, since the next build
+     * merely prepares the polygons again without it.
+     */
+    private static void saveContainerCache(ContainerGeometryCache containerCache) {
+        try {
+            containerCache.save();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to save the container cache, the next build prepares every polygon again", e);
+        }
+    }
+
+    /**
+     * The lat/lon bounds of the extract this build processes, used to load only
+     * the containers that can hold its points: the {@code bounds} argument when
+     * given, otherwise the bounds in the header of an already downloaded extract.
+     *
+     * @return the bounds, or null when they are unknown or cover the whole world
+     */
+    private static Envelope extractBounds(Arguments args, Path osmPath) {
+        Envelope bounds = args.bounds("bounds", "bounds");
+        if (bounds == null && Files.exists(osmPath)) {
+            try {
+                bounds = new OsmInputFile(osmPath).getLatLonBounds();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not read the bounds of {}: {}", osmPath, e.getMessage());
+            }
+        }
+        if (bounds == null || bounds.covers(GeoUtils.WORLD_LAT_LON_BOUNDS)) {
+            return null;
         }
+        return bounds;
     }
 }
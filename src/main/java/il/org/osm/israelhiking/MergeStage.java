@@ -0,0 +1,87 @@
+package il.org.osm.israelhiking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Point;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges the way groups that are complete off the Planetiler worker that
+ * processed their last way, so that one huge group, like a river with
+ * thousands of segments, does not stall that worker. The merges index their
+ * documents as they finish; their tile points are queued and handed back to
+ * the profile once all merges are done, since a Planetiler worker only emits
+ * features for the element it is processing.
+ */
+final class MergeStage implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MergeStage.class);
+
+  /** A merge of a complete group. */
+  @FunctionalInterface
+  interface MergeTask {
+    void run() throws Exception;
+  }
+
+  /** A point a merge produced for the tiles, in world coordinates. */
+  record TilePoint(Point point, long id, PointTileAttributes attributes) {
+  }
+
+  private final ForkJoinPool pool;
+  private final Queue<TilePoint> tilePoints = new ConcurrentLinkedQueue<>();
+  private final TimingHistogram mergeTimes = new TimingHistogram("Way group merges");
+
+  MergeStage(int threads) {
+    this.pool = new ForkJoinPool(threads);
+  }
+
+  void submit(String group, MergeTask task) {
+    pool.execute(() -> {
+      long start = System.nanoTime();
+      try {
+        task.run();
+      } catch (Exception e) {
+        LOGGER.warn("Failed to merge the ways of {}: {}", group, e.getMessage());
+      } catch (Throwable e) {
+        // E.g. a StackOverflowError from JTS on a degenerate group, which the pool would only print
+        LOGGER.error("Failed to merge the ways of {}, its documents and tile point are missing", group, e);
+        throw e;
+      } finally {
+        mergeTimes.record(System.nanoTime() - start);
+      }
+    });
+  }
+
+  void addTilePoint(Point point, long id, PointTileAttributes attributes) {
+    tilePoints.add(new TilePoint(point, id, attributes));
+  }
+
+  /** Waits for every submitted merge, then takes the tile points they produced. */
+  List<TilePoint> drain() {
+    pool.awaitQuiescence(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    var drained = new ArrayList<TilePoint>(tilePoints.size());
+    TilePoint tilePoint;
+    while ((tilePoint = tilePoints.poll()) != null) {
+      drained.add(tilePoint);
+    }
+    return drained;
+  }
+
+  TimingHistogram getMergeTimes() {
+    return mergeTimes;
+  }
+
+  void logSummary() {
+    LOGGER.info(mergeTimes.summary());
+  }
+
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
@@ -1,97 +1,250 @@
 package il.org.osm.israelhiking;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
 
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.operation.linemerge.LineMerger;
+import org.locationtech.jts.geom.LineString;
 
+import com.carrotsearch.hppc.LongArrayList;
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongIntHashMap;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.reader.WithTags;
 
 class MergedFeature {
   Long minId;
-  SourceFeature representingFeature;
-  Geometry geometry;
+  /** The tags of the way with the minimal id, which represents the group. */
+  WithTags representingTags;
+  /** The vector tile feature id of the way with the minimal id. */
+  long representingTileFeatureId;
+  /** Where the merged line starts, in world coordinates. */
+  Coordinate start;
   double length;
 }
 
+/**
+ * Collects the ways of a group that share a name until its last way arrives,
+ * and then merges them. The ways that already arrived are kept in a
+ * {@link PendingWayStore}, as their endpoints plus the few values the merge
+ * needs, and not as {@link SourceFeature}s, so that the heap does not grow
+ * with the number of unfinished groups.
+ *
+ * A group stays keyed by its name alone, not split into spatial clusters up
+ * front: pass 1 only sees the node ids of a way, not where it is, and any
+ * later way of the name may connect two parts that were far apart, so a part
+ * cannot be merged before the last way of its name arrived. The union-find in
+ * {@link #getMergedFeatures} then separates the parts that never connected.
+ */
 class MinWayIdFinder {
-  List<Long> ids = new CopyOnWriteArrayList<Long>();
-  List<SourceFeature> features = new CopyOnWriteArrayList<SourceFeature>();
+  /** The ids of the ways of the group that were not processed yet. */
+  LongHashSet ids = new LongHashSet();
+  /** Where the processed ways of the group are in the store. */
+  private LongArrayList offsets = new LongArrayList();
+  private final PendingWayStore store;
+
+  MinWayIdFinder(PendingWayStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Adds a processed way of the group.
+   *
+   * @return true when this was the last way of the group, i.e. it can be merged
+   */
+  boolean addFeature(SourceFeature feature, long tileFeatureId) throws GeometryException {
+    Geometry geometry = feature.worldGeometry();
+    if (!geometry.isEmpty()) {
+      offsets.add(store.append(encode(feature, tileFeatureId, geometry)));
+    }
+    ids.remove(feature.id());
+    return ids.isEmpty();
+  }
 
-  public List<MergedFeature> getMergedFeatures() throws GeometryException {
-    if (features.isEmpty()) {
+  /**
+   * Merges the ways into one feature per connected component, where two ways
+   * are connected when they share an endpoint. The components come from a
+   * union-find over the endpoints, so no merged line is ever built: a
+   * component only needs its minimal id, its length and a point to start at.
+   * The start is a loose end of the component, preferably one where a way
+   * starts, like the start of the line the ways would merge into, and only
+   * then one where a way ends. Among those it is on the way with the smallest
+   * id; a closed loop starts at the start of its minimal way.
+   */
+  public List<MergedFeature> getMergedFeatures() {
+    int count = offsets.size();
+    if (count == 0) {
       return List.of();
     }
+    var ways = new PendingWay[count];
+    for (int i = 0; i < count; i++) {
+      ways[i] = decode(offsets.get(i));
+    }
+    offsets = new LongArrayList(); // release memory
 
-    // 1. Bulk merge - single LineMerger pass over all input geometries
-    var lineMerger = new LineMerger();
-    for (SourceFeature feature : features) {
-      lineMerger.add(feature.worldGeometry());
+    int[] parents = new int[count];
+    for (int i = 0; i < count; i++) {
+      parents[i] = i;
     }
-    @SuppressWarnings("unchecked")
-    Collection<Geometry> mergedGeoms = lineMerger.getMergedLineStrings();
-
-    // 2. Build coordinate -> merged geometry lookup by indexing ALL coordinates
-    // of every merged output. This guarantees that any input segment's
-    // endpoint will find its parent geometry regardless of whether the output
-    // is an open line or a closed ring (where LineMerger may pick an
-    // arbitrary start/end point).
-    var coordToMerged = new HashMap<CoordKey, Geometry>();
-    for (Geometry geom : mergedGeoms) {
-      for (Coordinate coord : geom.getCoordinates()) {
-        coordToMerged.put(key(coord), geom);
+    var firstWayAtEndpoint = new LongIntHashMap(count * 2);
+    var degrees = new LongIntHashMap(count * 2);
+    long[] endpoints = new long[2];
+    for (int i = 0; i < count; i++) {
+      endpoints[0] = key(ways[i].start);
+      endpoints[1] = key(ways[i].end);
+      for (long endpoint : endpoints) {
+        degrees.put(endpoint, degrees.getOrDefault(endpoint, 0) + 1);
+        int first = firstWayAtEndpoint.getOrDefault(endpoint, -1);
+        if (first < 0) {
+          firstWayAtEndpoint.put(endpoint, i);
+        } else {
+          union(parents, i, first);
+        }
       }
     }
 
-    // 3. Attribute each input feature to its output geometry via endpoint lookup,
-    // aggregating minId, representingFeature, and length per output geometry.
-    var mergedFeatureMap = new HashMap<Geometry, MergedFeature>(mergedGeoms.size() * 2);
-    for (SourceFeature feature : features) {
-      Coordinate[] coords = feature.worldGeometry().getCoordinates();
-      if (coords.length == 0)
-        continue;
+    var mergedFeatures = new ArrayList<MergedFeature>();
+    var byRoot = new MergedFeature[count];
+    int[] representingWays = new int[count];
+    long[] startWayIds = new long[count];
+    boolean[] startsAtWayStart = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      PendingWay way = ways[i];
+      int root = find(parents, i);
+      MergedFeature mf = byRoot[root];
+      if (mf == null) {
+        mf = new MergedFeature();
+        mf.minId = Long.MAX_VALUE;
+        mf.length = 0;
+        byRoot[root] = mf;
+        startWayIds[root] = Long.MAX_VALUE;
+        mergedFeatures.add(mf);
+      }
+      mf.length += way.length;
+      if (way.id < mf.minId) {
+        mf.minId = way.id;
+        mf.representingTileFeatureId = way.tileFeatureId;
+        representingWays[root] = i;
+      }
+      boolean atWayStart = degrees.get(key(way.start)) == 1;
+      Coordinate looseEnd = atWayStart ? way.start : degrees.get(key(way.end)) == 1 ? way.end : null;
+      if (looseEnd != null && (atWayStart && !startsAtWayStart[root]
+          || atWayStart == startsAtWayStart[root] && way.id < startWayIds[root])) {
+        startWayIds[root] = way.id;
+        startsAtWayStart[root] = atWayStart;
+        mf.start = looseEnd;
+      }
+    }
 
-      Geometry mergedGeom = coordToMerged.get(key(coords[0]));
-      if (mergedGeom == null) {
-        mergedGeom = coordToMerged.get(key(coords[coords.length - 1]));
+    // Only now read back the tags, and only those of the representing ways.
+    for (int root = 0; root < count; root++) {
+      MergedFeature mf = byRoot[root];
+      if (mf == null) {
+        continue;
       }
-      if (mergedGeom == null)
-        continue; // shouldn't happen, but be safe
-
-      MergedFeature mf = mergedFeatureMap.computeIfAbsent(mergedGeom, g -> {
-        var newMf = new MergedFeature();
-        newMf.geometry = g;
-        newMf.minId = Long.MAX_VALUE;
-        newMf.length = 0;
-        return newMf;
-      });
-
-      mf.length += feature.lengthMeters();
-      if (feature.id() < mf.minId) {
-        mf.minId = feature.id();
-        mf.representingFeature = feature;
+      PendingWay representing = ways[representingWays[root]];
+      if (mf.start == null) {
+        mf.start = representing.start;
       }
+      mf.representingTags = WithTags.from(decodeTags(representing.offset));
+    }
+    return mergedFeatures;
+  }
+
+  private static int find(int[] parents, int i) {
+    while (parents[i] != i) {
+      parents[i] = parents[parents[i]];
+      i = parents[i];
     }
+    return i;
+  }
+
+  private static void union(int[] parents, int a, int b) {
+    int rootA = find(parents, a);
+    int rootB = find(parents, b);
+    if (rootA != rootB) {
+      parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+    }
+  }
 
-    features = new CopyOnWriteArrayList<>(); // release memory
-    return new ArrayList<>(mergedFeatureMap.values());
+  record PendingWay(long offset, long id, long tileFeatureId, double length, Coordinate start, Coordinate end) {
   }
 
-  private static CoordKey key(Coordinate c) {
-    return new CoordKey(c);
+  /** id, tile feature id, length, the world endpoints, then the tags. */
+  private static byte[] encode(SourceFeature feature, long tileFeatureId, Geometry geometry)
+      throws GeometryException {
+    Coordinate start;
+    Coordinate end;
+    if (geometry instanceof LineString line) {
+      start = line.getCoordinateN(0);
+      end = line.getCoordinateN(line.getNumPoints() - 1);
+    } else {
+      Coordinate[] coordinates = geometry.getCoordinates();
+      start = coordinates[0];
+      end = coordinates[coordinates.length - 1];
+    }
+    var bytes = new ByteArrayOutputStream();
+    try (var out = new DataOutputStream(bytes)) {
+      out.writeLong(feature.id());
+      out.writeLong(tileFeatureId);
+      out.writeDouble(feature.lengthMeters());
+      out.writeDouble(start.x);
+      out.writeDouble(start.y);
+      out.writeDouble(end.x);
+      out.writeDouble(end.y);
+      Map<String, Object> tags = feature.tags();
+      out.writeInt(tags.size());
+      for (var tag : tags.entrySet()) {
+        out.writeUTF(tag.getKey());
+        out.writeUTF(String.valueOf(tag.getValue()));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
   }
 
-  private record CoordKey(long x, long y) {
-    private static final double SCALE = 1e8; // ~0.01 mm precision
+  private PendingWay decode(long offset) {
+    try (var in = new DataInputStream(new ByteArrayInputStream(store.read(offset)))) {
+      long id = in.readLong();
+      long tileFeatureId = in.readLong();
+      double length = in.readDouble();
+      var start = new Coordinate(in.readDouble(), in.readDouble());
+      var end = new Coordinate(in.readDouble(), in.readDouble());
+      return new PendingWay(offset, id, tileFeatureId, length, start, end);
+    } catch (IOException e) {
+      throw new IllegalStateException("Corrupt pending way at " + offset, e);
+    }
+  }
 
-    CoordKey(Coordinate c) {
-      this(Math.round(c.x * SCALE), Math.round(c.y * SCALE));
+  private Map<String, Object> decodeTags(long offset) {
+    try (var in = new DataInputStream(new ByteArrayInputStream(store.read(offset)))) {
+      in.skipNBytes(Long.BYTES * 2 + Double.BYTES * 5);
+      int count = in.readInt();
+      Map<String, Object> tags = new HashMap<>(count * 2);
+      for (int i = 0; i < count; i++) {
+        tags.put(in.readUTF(), in.readUTF());
+      }
+      return tags;
+    } catch (IOException e) {
+      throw new IllegalStateException("Corrupt pending way at " + offset, e);
     }
   }
-}
\ No newline at end of file
+
+  /** ~0.4 m in world coordinates; ways that share a node share its exact coordinate anyway. */
+  private static final double SCALE = 1e8;
+
+  private static long key(Coordinate c) {
+    return (Math.round(c.x * SCALE) << 32) | (Math.round(c.y * SCALE) & 0xffffffffL);
+  }
+}
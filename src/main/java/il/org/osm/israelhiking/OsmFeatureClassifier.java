@@ -1,5 +1,8 @@
 package il.org.osm.israelhiking;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import com.onthegomap.planetiler.reader.WithTags;
 
 final class OsmFeatureClassifier {
@@ -77,153 +80,93 @@ final class OsmFeatureClassifier {
   private OsmFeatureClassifier() {
   }
 
-  static Category classify(WithTags f) {
-    String boundary = f.getString("boundary");
-    if ("protected_area".equals(boundary) || "national_park".equals(boundary)) {
-      return Category.NATURE_RESERVE;
-    }
-    if ("nature_reserve".equals(f.getString("leisure"))) {
-      return Category.PROTECTED_NODE;
-    }
+  /** Resolves the category of a tag value that needs more than the value itself. */
+  @FunctionalInterface
+  private interface Resolver {
+    Category resolve(String value, WithTags f);
+  }
 
-    String route = f.getString("route");
-    if (route != null) {
-      switch (route) {
-        case "hiking":
-        case "foot":
-          return Category.ROUTE_HIKING;
-        case "bicycle":
-        case "mtb":
-          return Category.ROUTE_BICYCLE;
-        case "road":
-          if ("yes".equals(f.getString("scenic"))) {
-            return Category.ROUTE_4X4;
-          }
-      }
+  /**
+   * What a single tag classifies a feature as. The rank is the position of the
+   * rule in the precedence, lower wins, so a feature with several matching tags
+   * gets the same category as when the rules are checked one by one in order.
+   */
+  private record Match(int rank, Category category, Resolver resolver) {
+    Category resolve(String value, WithTags f) {
+      return resolver == null ? category : resolver.resolve(value, f);
     }
+  }
 
-    String historic = f.getString("historic");
-    if (historic != null) {
-      switch (historic) {
-        case "ruins":
-          return Category.HISTORIC_RUINS;
-        case "archaeological_site":
-          return Category.HISTORIC_ARCHAEOLOGICAL;
-        case "memorial":
-        case "monument":
-          return Category.HISTORIC_MEMORIAL;
-        case "tomb":
-          return Category.HISTORIC_TOMB;
-      }
-    }
+  /** The rules of one tag key: by exact value, else for any value. */
+  private static final class KeyRules {
+    final Map<String, Match> byValue = new HashMap<>();
+    Match anyValue;
+  }
 
-    if ("picnic_table".equals(f.getString("leisure"))
-        || "picnic_site".equals(f.getString("tourism"))
-        || "picnic".equals(f.getString("amenity"))) {
-      return Category.PICNIC;
-    }
+  /**
+   * The rules of {@link #classify}, indexed by tag key, so that a feature only
+   * looks up the keys it actually has instead of checking every rule.
+   */
+  private static final Map<String, KeyRules> RULES = compileRules();
 
-    String natural = f.getString("natural");
-    if (natural != null) {
-      switch (natural) {
-        case "cave_entrance":
-          return Category.NATURAL_CAVE;
-        case "spring":
-          return Category.NATURAL_SPRING;
-        case "tree":
-          return Category.NATURAL_TREE;
-        case "flowers":
-          return Category.NATURAL_FLOWERS;
-        case "waterhole":
-          return Category.NATURAL_WATERHOLE;
-        case "peak":
-        case "volcano":
-          return Category.PEAK;
-        case "ridge":
-        case "valley":
-          return Category.NONICON_PEAK;
-        case "water":
-          return Category.WATER_BODY;
-      }
-    }
+  private static Map<String, KeyRules> compileRules() {
+    var rules = new HashMap<String, KeyRules>();
+    int rank = 0;
+    values(rules, rank++, "boundary", Category.NATURE_RESERVE, "protected_area", "national_park");
+    values(rules, rank++, "leisure", Category.PROTECTED_NODE, "nature_reserve");
 
-    String water = f.getString("water");
-    if ("reservoir".equals(water) || "pond".equals(water) || "lake".equals(water)
-        || "stream_pool".equals(water)) {
-      return Category.WATER_BODY;
-    }
+    values(rules, rank, "route", Category.ROUTE_HIKING, "hiking", "foot");
+    values(rules, rank, "route", Category.ROUTE_BICYCLE, "bicycle", "mtb");
+    value(rules, rank++, "route", "road", (v, f) -> "yes".equals(f.getString("scenic")) ? Category.ROUTE_4X4 : null);
 
-    String manMade = f.getString("man_made");
-    if (manMade != null) {
-      switch (manMade) {
-        case "water_well":
-          return Category.MAN_MADE_WATER_WELL;
-        case "cistern":
-          return Category.MAN_MADE_CISTERN;
-      }
-    }
+    values(rules, rank, "historic", Category.HISTORIC_RUINS, "ruins");
+    values(rules, rank, "historic", Category.HISTORIC_ARCHAEOLOGICAL, "archaeological_site");
+    values(rules, rank, "historic", Category.HISTORIC_MEMORIAL, "memorial", "monument");
+    values(rules, rank++, "historic", Category.HISTORIC_TOMB, "tomb");
 
-    String waterway = f.getString("waterway");
-    if ("waterfall".equals(waterway)) {
-      return Category.WATERFALL;
-    }
+    values(rules, rank, "leisure", Category.PICNIC, "picnic_table");
+    values(rules, rank, "tourism", Category.PICNIC, "picnic_site");
+    values(rules, rank++, "amenity", Category.PICNIC, "picnic");
 
-    if ("waterway".equals(f.getString("type"))) {
-      return Category.WATERWAY_RELATION;
-    }
+    values(rules, rank, "natural", Category.NATURAL_CAVE, "cave_entrance");
+    values(rules, rank, "natural", Category.NATURAL_SPRING, "spring");
+    values(rules, rank, "natural", Category.NATURAL_TREE, "tree");
+    values(rules, rank, "natural", Category.NATURAL_FLOWERS, "flowers");
+    values(rules, rank, "natural", Category.NATURAL_WATERHOLE, "waterhole");
+    values(rules, rank, "natural", Category.PEAK, "peak", "volcano");
+    values(rules, rank, "natural", Category.NONICON_PEAK, "ridge", "valley");
+    values(rules, rank++, "natural", Category.WATER_BODY, "water");
 
-    String place = f.getString("place");
-    if (place != null) {
-      if (place.isBlank()) {
-        return Category.PLACE_BLANK;
-      }
-      switch (place) {
-        case "city":
-          return Category.PLACE_CITY;
-        case "town":
-          return Category.PLACE_TOWN;
-        case "village":
-          return Category.PLACE_VILLAGE;
-        case "hamlet":
-          return Category.PLACE_HAMLET;
-        default:
-          return Category.PLACE_OTHER;
-      }
-    }
+    values(rules, rank++, "water", Category.WATER_BODY, "reservoir", "pond", "lake", "stream_pool");
 
-    String tourism = f.getString("tourism");
-    if (tourism != null) {
-      switch (tourism) {
-        case "viewpoint":
-          return Category.VIEWPOINT;
-        case "camp_site":
-          return Category.CAMP_SITE;
-        case "attraction":
-          return Category.ATTRACTION;
-        case "artwork":
-          return Category.ARTWORK;
-        case "alpine_hut":
-          return Category.ALPINE_HUT;
-      }
-    }
+    values(rules, rank, "man_made", Category.MAN_MADE_WATER_WELL, "water_well");
+    values(rules, rank++, "man_made", Category.MAN_MADE_CISTERN, "cistern");
 
-    String highway = f.getString("highway");
-    if (highway != null) {
-      switch (highway) {
-        case "cycleway":
-          return Category.HIGHWAY_CYCLEWAY;
-        case "footway":
-        case "path":
-          return Category.HIGHWAY_FOOT;
-        case "track":
-          return Category.HIGHWAY_TRACK;
-      }
-    }
+    values(rules, rank++, "waterway", Category.WATERFALL, "waterfall");
+    values(rules, rank++, "type", Category.WATERWAY_RELATION, "waterway");
+
+    values(rules, rank, "place", Category.PLACE_CITY, "city");
+    values(rules, rank, "place", Category.PLACE_TOWN, "town");
+    values(rules, rank, "place", Category.PLACE_VILLAGE, "village");
+    values(rules, rank, "place", Category.PLACE_HAMLET, "hamlet");
+    anyValue(rules, rank++, "place", (v, f) -> v.isBlank() ? Category.PLACE_BLANK : Category.PLACE_OTHER);
+
+    values(rules, rank, "tourism", Category.VIEWPOINT, "viewpoint");
+    values(rules, rank, "tourism", Category.CAMP_SITE, "camp_site");
+    values(rules, rank, "tourism", Category.ATTRACTION, "attraction");
+    values(rules, rank, "tourism", Category.ARTWORK, "artwork");
+    values(rules, rank++, "tourism", Category.ALPINE_HUT, "alpine_hut");
 
-    String amenity = f.getString("amenity");
-    if ("place_of_worship".equals(amenity) || "monastery".equals(amenity)) {
-      String religion = f.getString("religion") != null ? f.getString("religion") : "";
-      switch (religion) {
+    values(rules, rank, "highway", Category.HIGHWAY_CYCLEWAY, "cycleway");
+    values(rules, rank, "highway", Category.HIGHWAY_FOOT, "footway", "path");
+    values(rules, rank++, "highway", Category.HIGHWAY_TRACK, "track");
+
+    Resolver religion = (v, f) -> {
+      String value = f.getString("religion");
+      if (value == null) {
+        return Category.WORSHIP_OTHER;
+      }
+      switch (value) {
         case "jewish":
           return Category.WORSHIP_JEWISH;
         case "christian":
@@ -233,16 +176,63 @@ final class OsmFeatureClassifier {
         default:
           return Category.WORSHIP_OTHER;
       }
+    };
+    value(rules, rank, "amenity", "place_of_worship", religion);
+    value(rules, rank++, "amenity", "monastery", religion);
+
+    anyValue(rules, rank++, "ref:IL:inature", (v, f) -> Category.INATURE);
+    return rules;
+  }
+
+  private static void values(Map<String, KeyRules> rules, int rank, String key, Category category,
+      String... values) {
+    for (String value : values) {
+      rules.computeIfAbsent(key, k -> new KeyRules()).byValue.put(value, new Match(rank, category, null));
     }
+  }
+
+  private static void value(Map<String, KeyRules> rules, int rank, String key, String value, Resolver resolver) {
+    rules.computeIfAbsent(key, k -> new KeyRules()).byValue.put(value, new Match(rank, null, resolver));
+  }
 
-    if (f.getString("ref:IL:inature") != null) {
-      return Category.INATURE;
+  private static void anyValue(Map<String, KeyRules> rules, int rank, String key, Resolver resolver) {
+    rules.computeIfAbsent(key, k -> new KeyRules()).anyValue = new Match(rank, null, resolver);
+  }
+
+  /**
+   * The icon category of a feature. Callers classify a feature once and pass
+   * the category along, see {@code PlanetSearchProfile}.
+   */
+  static Category classify(WithTags f) {
+    Category best = null;
+    int bestRank = Integer.MAX_VALUE;
+    for (var tag : f.tags().entrySet()) {
+      KeyRules rules = RULES.get(tag.getKey());
+      if (rules == null || tag.getValue() == null) {
+        continue;
+      }
+      String value = tag.getValue().toString();
+      Match match = rules.byValue.get(value);
+      if (match == null) {
+        match = rules.anyValue;
+      }
+      if (match == null || match.rank >= bestRank) {
+        continue;
+      }
+      Category category = match.resolve(value, f);
+      if (category != null) {
+        best = category;
+        bestRank = match.rank;
+      }
+    }
+    if (best != null) {
+      return best;
     }
 
-    if (historic != null) {
+    if (f.hasTag("historic")) {
       return Category.FALLBACK_HISTORIC;
     }
-    if ("hot_spring".equals(natural) || waterway != null) {
+    if (f.hasTag("natural", "hot_spring") || f.hasTag("waterway")) {
       return Category.FALLBACK_WATER;
     }
     return Category.FALLBACK;
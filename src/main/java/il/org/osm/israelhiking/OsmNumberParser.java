@@ -1,16 +1,29 @@
 package il.org.osm.israelhiking;
 
-import java.util.Locale;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import com.onthegomap.planetiler.reader.WithTags;
+
+/**
+ * Parses the numbers of OSM tag values, e.g. "1,234 m" or "14115 ft", by
+ * scanning the characters instead of running regular expressions, since
+ * population and ele are parsed for every document. The rules are those of
+ * the regular expressions they replace:
+ * <ul>
+ * <li>population: the first {@code -?\d[\d ,.']*}, without the separators</li>
+ * <li>elevation: the first {@code -?\d[\d ,']*(?:\.\d+)?}, without the
+ * separators, in feet when the value ends with ft, feet, foot or '</li>
+ * </ul>
+ */
 final class OsmNumberParser {
 
-  private static final Pattern FIRST_NUMBER = Pattern.compile("-?\\d[\\d ,']*(?:\\.\\d+)?");
-  private static final Pattern POPULATION_DIGITS = Pattern.compile("-?\\d[\\d ,.']*");
   private static final double FEET_TO_METERS = 0.3048;
+  /** The largest integer a double holds exactly. */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
 
   private OsmNumberParser() {}
 
@@ -18,19 +31,31 @@ final class OsmNumberParser {
     if (raw == null) {
       return OptionalInt.empty();
     }
-    Matcher matcher = POPULATION_DIGITS.matcher(raw);
-    if (!matcher.find()) {
+    int start = numberStart(raw);
+    if (start < 0) {
+      return OptionalInt.empty();
+    }
+    if (raw.charAt(start) == '-') {
+      // zero or negative, or too long to parse: never a population
       return OptionalInt.empty();
     }
-    try {
-      long value = Long.parseLong(matcher.group().replaceAll("[ ,.']", ""));
-      if (value <= 0) {
-        return OptionalInt.empty();
+    long value = 0;
+    for (int i = start; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (isDigit(c)) {
+        int digit = c - '0';
+        if (value > (Long.MAX_VALUE - digit) / 10) {
+          return OptionalInt.empty();
+        }
+        value = value * 10 + digit;
+      } else if (c != ' ' && c != ',' && c != '.' && c != '\'') {
+        break;
       }
-      return OptionalInt.of((int) Math.min(value, Integer.MAX_VALUE));
-    } catch (NumberFormatException e) {
+    }
+    if (value <= 0) {
       return OptionalInt.empty();
     }
+    return OptionalInt.of((int) Math.min(value, Integer.MAX_VALUE));
   }
 
   static OptionalDouble parseElevation(String raw) {
@@ -41,23 +66,131 @@ final class OsmNumberParser {
     return OptionalDouble.of(isFeet(raw) ? n * FEET_TO_METERS : n);
   }
 
+  /**
+   * The admin_level of a feature. The common one or two digits are parsed
+   * here, anything else is left to {@link WithTags#getLong}.
+   */
+  static long parseAdminLevel(WithTags feature) {
+    Object tag = feature.getTag("admin_level");
+    if (tag instanceof String value) {
+      int length = value.length();
+      if (length == 1 && isDigit(value.charAt(0))) {
+        return value.charAt(0) - '0';
+      }
+      if (length == 2 && isDigit(value.charAt(0)) && isDigit(value.charAt(1))) {
+        return (value.charAt(0) - '0') * 10 + (value.charAt(1) - '0');
+      }
+    }
+    return feature.getLong("admin_level");
+  }
+
   private static boolean isFeet(String raw) {
-    String t = raw.toLowerCase(Locale.ROOT).trim();
-    return t.endsWith("ft") || t.endsWith("feet") || t.endsWith("foot") || t.endsWith("'");
+    int end = raw.length();
+    while (end > 0 && raw.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return endsWithIgnoreCase(raw, end, "ft") || endsWithIgnoreCase(raw, end, "feet")
+        || endsWithIgnoreCase(raw, end, "foot") || (end > 0 && raw.charAt(end - 1) == '\'');
+  }
+
+  /** For a lower case ASCII suffix. */
+  private static boolean endsWithIgnoreCase(String raw, int end, String suffix) {
+    int from = end - suffix.length();
+    if (from < 0) {
+      return false;
+    }
+    for (int i = 0; i < suffix.length(); i++) {
+      if ((raw.charAt(from + i) | 0x20) != suffix.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private static double firstNumber(String raw) {
     if (raw == null) {
       return Double.NaN;
     }
-    Matcher matcher = FIRST_NUMBER.matcher(raw);
-    if (!matcher.find()) {
+    int start = numberStart(raw);
+    if (start < 0) {
       return Double.NaN;
     }
-    try {
-      return Double.parseDouble(matcher.group().replaceAll("[ ,']", ""));
-    } catch (NumberFormatException e) {
-      return Double.NaN;
+    boolean negative = raw.charAt(start) == '-';
+    int i = negative ? start + 1 : start;
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    for (; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (isDigit(c)) {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+      } else if (c != ' ' && c != ',' && c != '\'') {
+        break;
+      }
+      if (digits > 18) {
+        return parseSlow(raw, start);
+      }
     }
+    if (i + 1 < raw.length() && raw.charAt(i) == '.' && isDigit(raw.charAt(i + 1))) {
+      for (i++; i < raw.length() && isDigit(raw.charAt(i)); i++) {
+        mantissa = mantissa * 10 + (raw.charAt(i) - '0');
+        digits++;
+        fractionDigits++;
+        if (digits > 18) {
+          return parseSlow(raw, start);
+        }
+      }
+    }
+    if (mantissa > MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+      return parseSlow(raw, start);
+    }
+    // Both are exact doubles, so the division is correctly rounded, just
+    // like Double.parseDouble
+    double value = mantissa / POWERS_OF_TEN[fractionDigits];
+    return negative ? -value : value;
+  }
+
+  /** Hands the number to Double.parseDouble when it has too many digits to be exact here. */
+  private static double parseSlow(String raw, int start) {
+    var number = new StringBuilder();
+    int i = start;
+    if (raw.charAt(i) == '-') {
+      number.append('-');
+      i++;
+    }
+    for (; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (isDigit(c)) {
+        number.append(c);
+      } else if (c != ' ' && c != ',' && c != '\'') {
+        break;
+      }
+    }
+    if (i + 1 < raw.length() && raw.charAt(i) == '.' && isDigit(raw.charAt(i + 1))) {
+      number.append('.');
+      for (i++; i < raw.length() && isDigit(raw.charAt(i)); i++) {
+        number.append(raw.charAt(i));
+      }
+    }
+    return Double.parseDouble(number.toString());
+  }
+
+  /** Where the first number starts: a digit, or a minus right before one. */
+  private static int numberStart(String raw) {
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (isDigit(c)) {
+        return i;
+      }
+      if (c == '-' && i + 1 < raw.length() && isDigit(raw.charAt(i + 1))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
   }
 }
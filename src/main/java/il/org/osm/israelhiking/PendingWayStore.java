@@ -0,0 +1,121 @@
+package il.org.osm.israelhiking;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import com.onthegomap.planetiler.util.ByteBufferUtil;
+
+/**
+ * An append-only, memory-mapped store of byte records, used to keep the ways
+ * of an unfinished name group off the heap until the group can be merged.
+ * Records are written once and read back once; the store is never compacted,
+ * it is unmapped and deleted when the run is over. The file is only created
+ * with the first record, since Planetiler clears its temporary directory when
+ * the run starts, after the profile that owns the store was constructed.
+ *
+ * Appends and reads are thread-safe. A record never crosses a segment, so a
+ * record is always a single absolute get/put on one mapped buffer.
+ */
+final class PendingWayStore implements AutoCloseable {
+
+  static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  private final Path directory;
+  private Path path;
+  private FileChannel channel;
+  private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+  private long position = 0;
+
+  PendingWayStore(Path directory) {
+    this.directory = directory;
+  }
+
+  /** @return the offset to {@link #read} the record back from */
+  long append(byte[] record) {
+    int size = Integer.BYTES + record.length;
+    if (size > SEGMENT_BYTES) {
+      throw new IllegalArgumentException("A record of " + record.length + " bytes does not fit a segment");
+    }
+    long offset;
+    synchronized (this) {
+      long segmentEnd = (position / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+      if (position + size > segmentEnd) {
+        position = segmentEnd;
+      }
+      offset = position;
+      position += size;
+    }
+    MappedByteBuffer segment = segment((int) (offset / SEGMENT_BYTES));
+    int at = (int) (offset % SEGMENT_BYTES);
+    segment.putInt(at, record.length);
+    segment.put(at + Integer.BYTES, record);
+    return offset;
+  }
+
+  byte[] read(long offset) {
+    MappedByteBuffer segment = segment((int) (offset / SEGMENT_BYTES));
+    int at = (int) (offset % SEGMENT_BYTES);
+    byte[] record = new byte[segment.getInt(at)];
+    segment.get(at + Integer.BYTES, record);
+    return record;
+  }
+
+  private MappedByteBuffer segment(int index) {
+    MappedByteBuffer[] current = segments;
+    if (index < current.length) {
+      return current[index];
+    }
+    synchronized (this) {
+      if (index >= segments.length) {
+        if (channel == null) {
+          open();
+        }
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, index + 1);
+        try {
+          for (int i = segments.length; i <= index; i++) {
+            grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_BYTES, SEGMENT_BYTES);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to grow the pending ways store " + path, e);
+        }
+        segments = grown;
+      }
+      return segments[index];
+    }
+  }
+
+  private void open() {
+    try {
+      Files.createDirectories(directory);
+      path = Files.createTempFile(directory, "pending-ways", ".bin");
+      channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to create the pending ways store in " + directory, e);
+    }
+  }
+
+  /** Unmaps the segments and deletes the file; the store must not be read after this. */
+  @Override
+  public synchronized void close() {
+    MappedByteBuffer[] mapped = segments;
+    segments = new MappedByteBuffer[0];
+    if (channel == null) {
+      return;
+    }
+    try {
+      ByteBufferUtil.free(mapped);
+      channel.close();
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to delete the pending ways store " + path, e);
+    } finally {
+      channel = null;
+    }
+  }
+}
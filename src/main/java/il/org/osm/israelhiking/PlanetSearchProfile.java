@@ -5,24 +5,20 @@ import static com.onthegomap.planetiler.reader.osm.OsmElement.Type.WAY;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.math.NumberUtils;
 import org.locationtech.jts.geom.Geometry;
-import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
-import org.locationtech.jts.geom.Polygonal;
-import org.locationtech.jts.geom.util.GeometryFixer;
-import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,33 +28,49 @@ import com.onthegomap.planetiler.Profile;
 import com.onthegomap.planetiler.config.PlanetilerConfig;
 import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.SourceFeature;
 import com.onthegomap.planetiler.reader.WithTags;
 import com.onthegomap.planetiler.reader.osm.OsmElement;
+import com.onthegomap.planetiler.reader.osm.OsmReader;
 import com.onthegomap.planetiler.reader.osm.OsmRelationInfo;
 
 import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
 
 import il.org.osm.israelhiking.ContainerIndex.ContainerRecord;
 import il.org.osm.israelhiking.ElasticsearchHelper.ElasticRunContext;
+import il.org.osm.israelhiking.OsmFeatureClassifier.Category;
+import il.org.osm.israelhiking.RelationInfo.MemberEnds;
 
 public class PlanetSearchProfile implements Profile {
   private static final Logger LOGGER = LoggerFactory.getLogger(PlanetSearchProfile.class);
 
   private PlanetilerConfig config;
-  private ElasticRunContext context;
-
-  /**
-   * Containment near a border is fuzzy anyway; ~0.0005° ≈ 50 m trims the polygons
-   * hard.
-   */
-  private static final double CONTAINER_SIMPLIFY_DEGREES = 0.0005;
+  /** Still loading when the profile is created, see {@link #context()}. */
+  private final CompletableFuture<ElasticRunContext> context;
+  private final ContainerSimplifier containerSimplifier = new ContainerSimplifier();
+  /** The tag keys of the supported languages, and of the unsuffixed tags. */
+  private final LanguageTagKeys[] languageKeys;
+  private final LanguageTagKeys defaultKeys;
+  /** Skips the features no handler below can use. */
+  private final RelevanceFilter relevanceFilter;
+  /** The tags a route relation keeps for its document, see {@link #documentTagKeys}. */
+  private final Set<String> relationTagKeys;
 
   public static final String POINTS_LAYER_NAME = "global_points";
 
   private static final List<String> ALTERNATIVE_NAME_TAGS = List.of(
       "alt_name", "loc_name", "short_name", "old_name", "official_name");
 
+  /**
+   * The tags a document is built from besides the names and descriptions:
+   * the links, the difficulty scales and the inputs of the prominence and the
+   * population.
+   */
+  private static final Set<String> DOCUMENT_TAGS = Set.of(
+      "wikidata", "image", "wikimedia_commons", "website", "ele", "population", "place",
+      "sac_scale", "mtb:scale", "tracktype", "intermittent");
+
   /**
    * Values that must never become a container
    */
@@ -66,13 +78,88 @@ public class PlanetSearchProfile implements Profile {
       "suburb", "neighbourhood", "quarter", "city_block", "borough",
       "square", "locality", "islet", "farm", "isolated_dwelling", "plot");
 
-  private static final Map<String, MinWayIdFinder> Singles = new ConcurrentHashMap<>();
-  private static final Map<String, MinWayIdFinder> NamedHighways = new ConcurrentHashMap<>();
-  private static final Map<String, MinWayIdFinder> Waterways = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, MinWayIdFinder> Singles = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, MinWayIdFinder> NamedHighways = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, MinWayIdFinder> Waterways = new ConcurrentHashMap<>();
+  /**
+   * The candidate route relations that contain a relation, by the id of that
+   * member relation. Built in pass 1, read only in pass 2.
+   */
+  private final ConcurrentHashMap<Long, List<RelationInfo>> parentRelations = new ConcurrentHashMap<>();
+  /** The ways of the name groups above that arrived before the last way of their group. */
+  private final PendingWayStore pendingWays;
+  /**
+   * Merges the complete groups above off the worker threads. Not private, so
+   * that a test can queue the points {@link #finish} emits.
+   */
+  final MergeStage mergeStage;
+  /** Simplifies and repairs the bounding box polygons off the worker threads. */
+  private final BBoxStage bboxStage;
 
-  public PlanetSearchProfile(PlanetilerConfig config, ElasticRunContext context) {
+  public PlanetSearchProfile(PlanetilerConfig config, String[] supportedLanguages,
+      CompletableFuture<ElasticRunContext> context) {
     this.config = config;
     this.context = context;
+    this.pendingWays = new PendingWayStore(config.tmpDir());
+    int stageThreads = stageThreads(config.threads());
+    this.mergeStage = new MergeStage(stageThreads);
+    this.bboxStage = new BBoxStage(stageThreads, containerSimplifier);
+    this.languageKeys = LanguageTagKeys.forLanguages(supportedLanguages, ALTERNATIVE_NAME_TAGS);
+    this.defaultKeys = LanguageTagKeys.forDefault(ALTERNATIVE_NAME_TAGS);
+    this.relevanceFilter = new RelevanceFilter(languageKeys, defaultKeys);
+    this.relationTagKeys = documentTagKeys(languageKeys, defaultKeys);
+  }
+
+  /**
+   * The threads of each of the two stages, which run next to the Planetiler
+   * workers: a quarter of the workers each, so that with both stages busy the
+   * machine runs at most one and a half threads per worker. Both are idle for
+   * most of the run, so they get no share of their own.
+   */
+  static int stageThreads(int workerThreads) {
+    return Math.max(1, workerThreads / 4);
+  }
+
+  /**
+   * The keys of the tags {@link #convertTagsToDocument} reads, in every
+   * language, so that a route relation keeps only those until its document is
+   * built.
+   */
+  static Set<String> documentTagKeys(LanguageTagKeys[] languageKeys, LanguageTagKeys defaultKeys) {
+    var keys = new HashSet<String>(DOCUMENT_TAGS);
+    for (LanguageTagKeys language : languageKeys) {
+      addLanguageTagKeys(keys, language);
+    }
+    addLanguageTagKeys(keys, defaultKeys);
+    return Set.copyOf(keys);
+  }
+
+  private static void addLanguageTagKeys(Set<String> keys, LanguageTagKeys language) {
+    keys.add(language.name);
+    keys.add(language.description);
+    keys.add(language.mtbName);
+    keys.addAll(Arrays.asList(language.alternativeNames));
+  }
+
+  /**
+   * The indices and the inputs of the run. They load while Planetiler
+   * downloads the extract and reads it the first time, so the first feature
+   * of the second pass waits for them; after that this is a read of a
+   * completed future.
+   */
+  private ElasticRunContext context() {
+    return StartupSteps.await(context);
+  }
+
+  /**
+   * Fails the first pass as soon as a startup step failed, rather than at the
+   * first feature of the second pass. It only reads the state of the future,
+   * and only for the ways and relations, which are far fewer than the nodes.
+   */
+  private void failIfStartupFailed() {
+    if (context.isCompletedExceptionally()) {
+      context();
+    }
   }
 
   /*
@@ -80,8 +167,7 @@ public class PlanetSearchProfile implements Profile {
    * 1. On the first pass through the input file, store relevant information from
    * applicable OSM route relations and ways with mtb:name tag.
    * 2. On the second pass, emit points for relation and mtb:name ways. Emit a
-   * point by merging all the ways and using the first point of the merged
-   * linestring.
+   * point for every connected set of ways, at a loose end of that set.
    * 
    * Step 1)
    *
@@ -99,13 +185,8 @@ public class PlanetSearchProfile implements Profile {
    * mtb:name tag.
    */
 
-  static private final void CoalesceIntoMap(Map<String, String> map, String language, String... strings) {
-    var value = Arrays.stream(strings)
-        .filter(Objects::nonNull)
-        .filter(s -> !s.isEmpty())
-        .findFirst()
-        .orElse(null);
-    if (value != null) {
+  static private final void CoalesceIntoMap(Map<String, String> map, String language, String value) {
+    if (value != null && !value.isEmpty()) {
       map.put(language, value);
     }
   }
@@ -113,41 +194,31 @@ public class PlanetSearchProfile implements Profile {
   /**
    * Collects all the alternative names of a feature for a single language and
    * stores them under that language in the alt_names map.
-   * The "default" language reads the unsuffixed tags, i.e. alt_name, loc_name
-   * etc.
    */
-  private static void AddAlternativeNames(PointDocument pointDocument, WithTags feature, String language) {
-    var suffix = "default".equals(language) ? "" : ":" + language;
-    var alternativeNames = ALTERNATIVE_NAME_TAGS.stream()
-        .map(tag -> feature.getString(tag + suffix))
-        .filter(Objects::nonNull)
-        .flatMap(value -> Arrays.stream(value.split(";")))
-        .map(s -> s.trim())
-        .filter(s -> !s.isEmpty())
-        .distinct()
-        .collect(Collectors.toList());
-    if (alternativeNames.isEmpty()) {
+  private static void AddAlternativeNames(PointDocument pointDocument, WithTags feature, LanguageTagKeys keys) {
+    var alternativeNames = keys.alternativeNames(feature);
+    if (alternativeNames == null) {
       return;
     }
     if (pointDocument.alt_names == null) {
       pointDocument.alt_names = new HashMap<String, List<String>>();
     }
-    pointDocument.alt_names.put(language, alternativeNames);
+    pointDocument.alt_names.put(keys.language, alternativeNames);
   }
 
-  private void convertTagsToDocument(PointDocument pointDocument, WithTags feature) {
-    for (String language : this.context.supportedLanguages()) {
-      CoalesceIntoMap(pointDocument.name, language, feature.getString("name:" + language));
-      CoalesceIntoMap(pointDocument.description, language, feature.getString("description:" + language));
-      AddAlternativeNames(pointDocument, feature, language);
-    }
-    if (feature.hasTag("name")) {
-      CoalesceIntoMap(pointDocument.name, "default", feature.getString("name"));
-    }
-    if (feature.hasTag("description")) {
-      CoalesceIntoMap(pointDocument.description, "default", feature.getString("description"));
-    }
-    AddAlternativeNames(pointDocument, feature, "default");
+  /**
+   * @param category the icon category of the feature, classified once by the
+   *                 caller
+   */
+  private void convertTagsToDocument(PointDocument pointDocument, WithTags feature, Category category) {
+    for (LanguageTagKeys keys : languageKeys) {
+      CoalesceIntoMap(pointDocument.name, keys.language, feature.getString(keys.name));
+      CoalesceIntoMap(pointDocument.description, keys.language, feature.getString(keys.description));
+      AddAlternativeNames(pointDocument, feature, keys);
+    }
+    CoalesceIntoMap(pointDocument.name, defaultKeys.language, feature.getString(defaultKeys.name));
+    CoalesceIntoMap(pointDocument.description, defaultKeys.language, feature.getString(defaultKeys.description));
+    AddAlternativeNames(pointDocument, feature, defaultKeys);
     setDifficulty(pointDocument, feature);
     pointDocument.wikidata = feature.getString("wikidata");
     pointDocument.image = feature.getString("image");
@@ -156,7 +227,7 @@ public class PlanetSearchProfile implements Profile {
     if (feature.hasTag("intermittent", "yes")) {
       pointDocument.intermittent = true;
     }
-    setProminence(pointDocument, feature);
+    setProminence(pointDocument, feature, category);
     setPopulation(pointDocument, feature);
   }
 
@@ -189,170 +260,116 @@ public class PlanetSearchProfile implements Profile {
     }
   }
 
-  private void setProminence(PointDocument pointDocument, WithTags feature) {
-    long qrankRaw = this.context.qrankLookup().qrankFor(pointDocument.wikidata);
+  private void setProminence(PointDocument pointDocument, WithTags feature, Category category) {
+    long qrankRaw = context().qrankLookup().qrankFor(pointDocument.wikidata);
     double ele = OsmNumberParser.parseElevation(feature.getString("ele")).orElse(Double.NaN);
     boolean hasImage = pointDocument.image != null || pointDocument.wikimedia_commons != null;
     boolean hasWebsite = pointDocument.website != null;
     boolean hasWikidata = pointDocument.wikidata != null;
 
     pointDocument.poiProminence = ProminenceCalculator.compute(
-        OsmFeatureClassifier.classify(feature), ele, hasImage, hasWebsite, hasWikidata, qrankRaw);
+        category, ele, hasImage, hasWebsite, hasWikidata, qrankRaw);
   }
 
   private void setDifficulty(PointDocument pointDocument, WithTags feature) {
+    Difficulty difficulty;
     if (feature.hasTag("sac_scale")) {
-      switch (feature.getString("sac_scale")) {
-        case "none":
-          pointDocument.poiDifficulty = "Easy";
-          break;
-        case "T1":
-          pointDocument.poiDifficulty = "Moderate";
-          break;
-        case "T2":
-          pointDocument.poiDifficulty = "Hard";
-          break;
-        case "T3":
-        case "T4":
-        case "T5":
-        case "T6":
-          pointDocument.poiDifficulty = "Very Hard";
-          break;
-      }
+      difficulty = Difficulty.fromSacScale(feature.getString("sac_scale"));
     } else if (feature.hasTag("mtb:scale")) {
-      switch (feature.getString("mtb:scale")) {
-        case "0":
-          pointDocument.poiDifficulty = "Easy";
-          break;
-        case "1":
-          pointDocument.poiDifficulty = "Moderate";
-          break;
-        case "2":
-          pointDocument.poiDifficulty = "Hard";
-          break;
-        case "3":
-        case "4":
-        case "5":
-        case "6":
-          pointDocument.poiDifficulty = "Very Hard";
-          break;
-      }
-    } else if (feature.hasTag("tracktype")) {
-      switch (feature.getString("tracktype")) {
-        case "grade1":
-        case "grade2":
-          pointDocument.poiDifficulty = "Easy";
-          break;
-        case "grade3":
-          pointDocument.poiDifficulty = "Moderate";
-          break;
-        case "grade4":
-          pointDocument.poiDifficulty = "Hard";
-          break;
-        case "grade5":
-          pointDocument.poiDifficulty = "Very Hard";
-          break;
-      }
+      difficulty = Difficulty.fromMtbScale(feature.getString("mtb:scale"));
+    } else {
+      difficulty = Difficulty.fromTracktype(feature.getString("tracktype"));
+    }
+    if (difficulty != null) {
+      pointDocument.poiDifficulty = difficulty.label;
     }
   }
 
   @Override
   public List<OsmRelationInfo> preprocessOsmRelation(OsmElement.Relation relation) {
+    failIfStartupFailed();
     // If this is a "route" relation ...
     if (relation.hasTag("state", "proposed")) {
       return null;
     }
-    var pointDocument = new PointDocument();
-    setIconColorCategory(pointDocument, relation);
-
-    if (!"icon-river".equals(pointDocument.poiIcon) &&
-        !"Bicycle".equals(pointDocument.poiCategory) &&
-        !"Hiking".equals(pointDocument.poiCategory) &&
-        !"4x4".equals(pointDocument.poiCategory)) {
+    var category = OsmFeatureClassifier.classify(relation);
+    if (!"icon-river".equals(category.icon) &&
+        !"Bicycle".equals(category.poiCategory) &&
+        !"Hiking".equals(category.poiCategory) &&
+        !"4x4".equals(category.poiCategory)) {
       return null;
     }
-    // then store a RouteRelationInfo instance with tags we'll need later
+    // then store a RouteRelationInfo instance with what we'll need later
     var waysMemberIds = relation.members()
         .stream()
         .filter(member -> member.type() == WAY)
         .mapToLong(OsmElement.Relation.Member::ref)
-        .boxed()
-        .collect(Collectors.toList());
+        .toArray();
 
     var relationMemberIds = relation.members()
         .stream()
         .filter(member -> member.type() == RELATION)
         .mapToLong(OsmElement.Relation.Member::ref)
-        .boxed()
-        .collect(Collectors.toList());
+        .toArray();
 
-    if (waysMemberIds.isEmpty() && relationMemberIds.isEmpty()) {
+    if (waysMemberIds.length == 0 && relationMemberIds.length == 0) {
       return null;
     }
-    var info = new RelationInfo(relation.id());
-
-    convertTagsToDocument(pointDocument, relation);
+    // The document is built only when all the members were reached, see
+    // relationPointDocument
+    var info = new RelationInfo(relation.id(), category, relation.tags(), relationTagKeys, waysMemberIds,
+        relationMemberIds);
+    for (long child : info.relationMembers) {
+      parentRelations.compute(child, (key, parents) -> {
+        var updated = parents == null ? new ArrayList<RelationInfo>(1) : parents;
+        updated.add(info);
+        return updated;
+      });
+    }
+    return List.of(info);
+  }
 
+  private PointDocument relationPointDocument(RelationInfo relation) {
+    var pointDocument = new PointDocument();
+    setIconColorCategory(pointDocument, relation.category);
+    convertTagsToDocument(pointDocument, relation.tags(), relation.category);
     pointDocument.poiSource = "OSM";
-    info.pointDocument = pointDocument;
-    if (waysMemberIds.size() > 0) {
-      info.firstMemberId = waysMemberIds.getFirst();
-      info.secondMemberId = waysMemberIds.size() > 1 ? waysMemberIds.get(1) : -1;
-    } else if (relationMemberIds.size() > 0) {
-      info.firstMemberId = relationMemberIds.getFirst();
-      info.secondMemberId = relationMemberIds.size() > 1 ? relationMemberIds.get(1) : -1;
-    }
-
-    info.waysMemberIds = Collections.synchronizedList(waysMemberIds);
-    info.RelationMemberIds = Collections.synchronizedList(relationMemberIds);
-    info.isSuperRelation = info.RelationMemberIds.size() > 0;
-    return List.of(info);
+    return pointDocument;
   }
 
   @Override
   public void preprocessOsmWay(OsmElement.Way way) {
+    failIfStartupFailed();
     if (way.hasTag("mtb:name")) {
-      String mtbName = way.getString("mtb:name");
-      synchronized (mtbName.intern()) {
-        if (!Singles.containsKey(mtbName)) {
-          var finder = new MinWayIdFinder();
-          finder.ids.add(way.id());
-          Singles.put(mtbName, finder);
-        } else {
-          Singles.get(mtbName).ids.add((way.id()));
-        }
-        return;
-      }
+      addToGroup(Singles, way.getString("mtb:name"), way.id());
+      return;
     }
     if (way.hasTag("waterway") && way.hasTag("name")) {
-      String waterwayName = way.getString("name");
-      synchronized (waterwayName.intern()) {
-        if (!Waterways.containsKey(waterwayName)) {
-          var finder = new MinWayIdFinder();
-          finder.ids.add((way.id()));
-          Waterways.put(waterwayName, finder);
-        } else {
-          Waterways.get(waterwayName).ids.add((way.id()));
-        }
-      }
+      addToGroup(Waterways, way.getString("name"), way.id());
       return;
     }
 
     if (way.hasTag("highway", "track", "path", "footway", "cycleway") && way.hasTag("name")) {
-      String highwayName = way.getString("name");
-      synchronized (highwayName.intern()) {
-        if (!NamedHighways.containsKey(highwayName)) {
-          var finder = new MinWayIdFinder();
-          finder.ids.add((way.id()));
-          NamedHighways.put(highwayName, finder);
-        } else {
-          NamedHighways.get(highwayName).ids.add((way.id()));
-        }
-      }
+      addToGroup(NamedHighways, way.getString("name"), way.id());
       return;
     }
   }
 
+  /**
+   * Adds a way to the group of ways that share its name. compute() locks only
+   * the bin of that name, so the pass 1 threads never wait on each other for
+   * different names.
+   */
+  private void addToGroup(ConcurrentHashMap<String, MinWayIdFinder> groups, String name, long wayId) {
+    groups.compute(name, (key, finder) -> {
+      if (finder == null) {
+        finder = new MinWayIdFinder(pendingWays);
+      }
+      finder.ids.add(wayId);
+      return finder;
+    });
+  }
+
   @Override
   public void processFeature(SourceFeature feature, FeatureCollector features) {
     try {
@@ -360,8 +377,14 @@ public class PlanetSearchProfile implements Profile {
         processExternalFeautre(feature, features);
         return;
       }
-      if (isBBoxFeature(feature, this.context.supportedLanguages())) {
-        insertBboxToElasticsearch(feature, this.context.supportedLanguages());
+      if (!relevanceFilter.hasRelevantTags(feature) && feature.relationInfo(RelationInfo.class).isEmpty()) {
+        relevanceFilter.skip();
+        return;
+      }
+      // Shared by the handlers below, so each derived geometry is computed once
+      var geometry = new FeatureGeometry(feature);
+      if (isBBoxFeature(feature)) {
+        insertBboxToElasticsearch(feature, geometry);
       }
       processOsmRelationFeature(feature, features);
       if (processMtbNameFeature(feature, features))
@@ -370,9 +393,13 @@ public class PlanetSearchProfile implements Profile {
         return;
       if (processHighwayFeautre(feature, features))
         return;
-      if (processOtherSourceFeature(feature, features))
+      if (!isSearchable(feature))
         return;
-      addNonIconFeaturesToElasricseach(feature);
+      // Classified once, for both the icon and the non icon documents
+      var category = OsmFeatureClassifier.classify(feature);
+      if (processOtherSourceFeature(feature, geometry, features, category))
+        return;
+      addNonIconFeaturesToElasricseach(feature, geometry, category);
     } catch (GeometryException e) {
       // ignore bad geometries
     }
@@ -386,13 +413,12 @@ public class PlanetSearchProfile implements Profile {
     pointDocument.poiSource = feature.getString("poiSource");
     pointDocument.poiDifficulty = feature.getString("poiDifficulty");
     pointDocument.poiLength = NumberUtils.toDouble(feature.getString("poiLength"), 0.0);
-    var point = feature.canBePolygon() ? (Point) feature.centroidIfConvex()
-        : GeoUtils.point(feature.worldGeometry().getCoordinate());
+    var geometry = new FeatureGeometry(feature);
+    var point = geometry.worldPoint();
     var docId = pointDocument.poiSource + "_" + feature.getString("identifier");
-    var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-    pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+    pointDocument.location = geometry.location();
 
-    convertTagsToDocument(pointDocument, feature);
+    convertTagsToDocument(pointDocument, feature, OsmFeatureClassifier.classify(feature));
     enrichWithContainers(pointDocument);
     insertPointToElasticsearch(pointDocument, docId);
 
@@ -404,47 +430,68 @@ public class PlanetSearchProfile implements Profile {
     setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
   }
 
-  private void processOsmRelationFeature(SourceFeature feature, FeatureCollector features) throws GeometryException {
-    // get all the RouteRelationInfo instances we returned from
-    // preprocessOsmRelation that this way belongs to, including super relations.
-    for (var routeInfo : feature.relationInfo(RelationInfo.class, true)) {
-      RelationInfo relation = routeInfo.relation();
-      synchronized (relation) {
-        if (relation.waysMemberIds.remove(feature.id())) {
-          relation.length += feature.lengthMeters();
-        }
-        if (relation.firstMemberId == feature.id()) {
-          relation.firstMemberFeature = feature;
-        }
-        if (relation.secondMemberId == feature.id()) {
-          relation.secondMemberFeature = feature;
-        }
+  private void processOsmRelationFeature(SourceFeature feature, FeatureCollector features) {
+    // get the RouteRelationInfo instances we returned from preprocessOsmRelation
+    // that this way is a direct member of; super relations are reached through
+    // the parent graph once their member relation completes.
+    var relations = feature.relationInfo(RelationInfo.class);
+    for (int i = 0; i < relations.size(); i++) {
+      RelationInfo relation = relations.get(i).relation();
+      if (isListedBefore(relations, i)) {
+        // The way is a member of this relation more than once
+        continue;
+      }
+      if (relation.wayReached(feature)) {
+        completeRelation(relation, features);
       }
     }
+  }
 
-    handleSuperRelationMembersUpdate(feature);
-
-    for (var routeInfo : feature.relationInfo(RelationInfo.class, true)) {
-      RelationInfo relation = routeInfo.relation();
-      if (!relation.waysMemberIds.isEmpty() || !relation.RelationMemberIds.isEmpty()) {
-        continue;
+  private static boolean isListedBefore(List<OsmReader.RelationMember<RelationInfo>> relations, int index) {
+    long id = relations.get(index).relation().id();
+    for (int i = 0; i < index; i++) {
+      if (relations.get(i).relation().id() == id) {
+        return true;
       }
+    }
+    return false;
+  }
 
-      if (relation.pointDocument.name.isEmpty()) {
-        continue;
+  /**
+   * Adds the POI of a relation whose members were all reached, and reports it
+   * to its parent relations, which may complete in turn. Only the thread that
+   * reached the last member gets here, so every relation completes once.
+   */
+  private void completeRelation(RelationInfo relation, FeatureCollector features) {
+    addRelationPoint(relation, features);
+    for (RelationInfo parent : parentRelations.getOrDefault(relation.id(), List.of())) {
+      if (parent.firstMemberId == relation.id()) {
+        parent.firstMember = relation.firstMember;
+        parent.secondMember = relation.secondMember;
       }
-      // All relation members were reached. Add a POI element for line relation
-      var point = getFirstPointOfLineRelation(relation.firstMemberFeature, relation.secondMemberFeature);
-      var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-      relation.pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
-      relation.pointDocument.poiLength = relation.length;
-      enrichWithContainers(relation.pointDocument);
-      insertPointToElasticsearch(relation.pointDocument, "OSM_relation_" + relation.id());
+      parent.length.add(relation.length.sum());
+      if (parent.memberReached()) {
+        completeRelation(parent, features);
+      }
+    }
+  }
 
-      var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
-          .setId(relation.vectorTileFeatureId(config.featureSourceIdMultiplier()));
-      setFeaturePropertiesFromPointDocument(tileFeature, relation.pointDocument);
+  private void addRelationPoint(RelationInfo relation, FeatureCollector features) {
+    // All relation members were reached. Add a POI element for line relation
+    var pointDocument = relationPointDocument(relation);
+    if (pointDocument.name.isEmpty() || relation.firstMember == null) {
+      return;
     }
+    var point = getFirstPointOfLineRelation(relation.firstMember, relation.secondMember);
+    var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
+    pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+    pointDocument.poiLength = relation.length.sum();
+    enrichWithContainers(pointDocument);
+    insertPointToElasticsearch(pointDocument, "OSM_relation_" + relation.id());
+
+    var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
+        .setId(relation.vectorTileFeatureId(config.featureSourceIdMultiplier()));
+    setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
   }
 
   private boolean processMtbNameFeature(SourceFeature feature, FeatureCollector features) throws GeometryException {
@@ -457,47 +504,41 @@ public class PlanetSearchProfile implements Profile {
     }
     var single = Singles.get(mtbName);
     synchronized (single) {
-      single.features.add(feature);
-      single.ids.remove(feature.id());
-
-      if (!single.ids.isEmpty()) {
+      if (!single.addFeature(feature, feature.vectorTileFeatureId(config.featureSourceIdMultiplier()))) {
         return true;
       }
+    }
+    // This was the last way with the same mtb:name, so the lines can be merged
+    mergeStage.submit("mtb:name " + mtbName, () -> mergeSingle(single));
+    return true;
+  }
 
-      for (var mergedFeature : single.getMergedFeatures()) {
-        var minIdFeature = mergedFeature.representingFeature;
+  private void mergeSingle(MinWayIdFinder single) {
+    for (var mergedFeature : single.getMergedFeatures()) {
+      var minIdTags = mergedFeature.representingTags;
 
-        var pointDocument = new PointDocument();
-        pointDocument.poiCategory = "Bicycle";
-        pointDocument.poiIcon = "icon-bike";
-        pointDocument.poiIconColor = "gray";
-        pointDocument.poiSource = "OSM";
-        pointDocument.poiLength = mergedFeature.length;
+      var pointDocument = new PointDocument();
+      pointDocument.poiCategory = "Bicycle";
+      pointDocument.poiIcon = "icon-bike";
+      pointDocument.poiIconColor = "gray";
+      pointDocument.poiSource = "OSM";
+      pointDocument.poiLength = mergedFeature.length;
 
-        var firstLine = mergedFeature.geometry;
-        var point = GeoUtils.point(((Geometry) firstLine).getCoordinate());
-        var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-        pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+      var point = GeoUtils.point(mergedFeature.start);
+      var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
+      pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
 
-        convertTagsToDocument(pointDocument, minIdFeature);
-        for (String language : this.context.supportedLanguages()) {
-          CoalesceIntoMap(pointDocument.name, language, minIdFeature.getString("mtb:name:" + language));
-        }
-        if (minIdFeature.hasTag("mtb:name")) {
-          CoalesceIntoMap(pointDocument.name, "default", minIdFeature.getString("mtb:name"));
-        }
-        enrichWithContainers(pointDocument);
-        insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
-        // This was the last way with the same mtb:name, so we can merge the lines and
-        // add the feature
-        // Add a POI element for a SingleTrack
-        var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
-            // Override the feature id with the minimal id of the group
-            .setId(minIdFeature.vectorTileFeatureId(config.featureSourceIdMultiplier()));
-        setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
+      convertTagsToDocument(pointDocument, minIdTags, OsmFeatureClassifier.classify(minIdTags));
+      for (LanguageTagKeys keys : languageKeys) {
+        CoalesceIntoMap(pointDocument.name, keys.language, minIdTags.getString(keys.mtbName));
       }
+      CoalesceIntoMap(pointDocument.name, defaultKeys.language, minIdTags.getString(defaultKeys.mtbName));
+      enrichWithContainers(pointDocument);
+      insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
+      // Add a POI element for a SingleTrack, with the minimal id of the group
+      mergeStage.addTilePoint(point, mergedFeature.representingTileFeatureId,
+          PointTileAttributes.of(pointDocument));
     }
-    return true;
   }
 
   private boolean processWaterwayFeature(SourceFeature feature, FeatureCollector features) throws GeometryException {
@@ -513,7 +554,7 @@ public class PlanetSearchProfile implements Profile {
     }
     for (var routeInfo : feature.relationInfo(RelationInfo.class)) {
       RelationInfo relation = routeInfo.relation();
-      if (relation.pointDocument.poiIcon == "icon-river") {
+      if ("icon-river".equals(relation.category.icon)) {
         // In case this waterway is part of a relation, we already processed it
         return true;
       }
@@ -521,41 +562,38 @@ public class PlanetSearchProfile implements Profile {
 
     var waterway = Waterways.get(name);
     synchronized (waterway) {
-
-      waterway.features.add(feature);
-      waterway.ids.remove(feature.id());
-      if (!waterway.ids.isEmpty()) {
+      if (!waterway.addFeature(feature, feature.vectorTileFeatureId(config.featureSourceIdMultiplier()))) {
         return true;
       }
-      for (var mergedFeature : waterway.getMergedFeatures()) {
-        var minIdFeature = mergedFeature.representingFeature;
-
-        var pointDocument = new PointDocument();
-        pointDocument.poiCategory = "Water";
-        pointDocument.poiIcon = "icon-river";
-        pointDocument.poiIconColor = "#1e80e3";
-        pointDocument.poiSource = "OSM";
-        pointDocument.poiLength = mergedFeature.length;
-
-        var firstLine = mergedFeature.geometry;
-        var point = GeoUtils.point(((Geometry) firstLine).getCoordinate());
-        var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-        pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
-
-        convertTagsToDocument(pointDocument, minIdFeature);
-        enrichWithContainers(pointDocument);
-        insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
-        if (!isInterestingPoint(pointDocument)) {
-          // Skip adding features without any description or image to tiles
-          continue;
-        }
+    }
+    mergeStage.submit("waterway " + name, () -> mergeWaterway(waterway));
+    return true;
+  }
+
+  private void mergeWaterway(MinWayIdFinder waterway) {
+    for (var mergedFeature : waterway.getMergedFeatures()) {
+      var minIdTags = mergedFeature.representingTags;
 
-        var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
-            // Override the feature id with the minimal id of the group
-            .setId(minIdFeature.vectorTileFeatureId(config.featureSourceIdMultiplier()));
-        setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
+      var pointDocument = new PointDocument();
+      pointDocument.poiCategory = "Water";
+      pointDocument.poiIcon = "icon-river";
+      pointDocument.poiIconColor = "#1e80e3";
+      pointDocument.poiSource = "OSM";
+      pointDocument.poiLength = mergedFeature.length;
+
+      var point = GeoUtils.point(mergedFeature.start);
+      var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
+      pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+
+      convertTagsToDocument(pointDocument, minIdTags, OsmFeatureClassifier.classify(minIdTags));
+      enrichWithContainers(pointDocument);
+      insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
+      if (!isInterestingPoint(pointDocument)) {
+        // Skip adding features without any description or image to tiles
+        continue;
       }
-      return true;
+      mergeStage.addTilePoint(point, mergedFeature.representingTileFeatureId,
+          PointTileAttributes.of(pointDocument));
     }
   }
 
@@ -582,68 +620,62 @@ public class PlanetSearchProfile implements Profile {
 
     var highway = NamedHighways.get(name);
     synchronized (highway) {
-
-      highway.features.add(feature);
-      highway.ids.remove(feature.id());
-
-      if (!highway.ids.isEmpty()) {
+      if (!highway.addFeature(feature, feature.vectorTileFeatureId(config.featureSourceIdMultiplier()))) {
         return true;
       }
+    }
+    mergeStage.submit("highway " + name, () -> mergeHighway(highway));
+    return true;
+  }
 
-      for (var mergedFeature : highway.getMergedFeatures()) {
-        var minIdFeature = mergedFeature.representingFeature;
-        var pointDocument = new PointDocument();
-        setIconColorCategory(pointDocument, minIdFeature);
-        pointDocument.poiSource = "OSM";
-        pointDocument.poiLength = mergedFeature.length;
-
-        var point = GeoUtils.point((mergedFeature.geometry.getCoordinate()));
-        var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-        pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
-        convertTagsToDocument(pointDocument, minIdFeature);
-        enrichWithContainers(pointDocument);
-        insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
-
-        if (pointDocument.poiIcon == "icon-hike" ||
-            pointDocument.poiIcon == "icon-bike" ||
-            pointDocument.poiIcon == "icon-four-by-four") {
-          continue;
-        }
-        // This is a highway with a name, but it's not just a highway as it has a
-        // different icon, so adding it to the list of points.
-        var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
-            // Override the feature id with the minimal id of the group
-            .setId(minIdFeature.vectorTileFeatureId(config.featureSourceIdMultiplier()));
-        setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
-      }
+  private void mergeHighway(MinWayIdFinder highway) {
+    for (var mergedFeature : highway.getMergedFeatures()) {
+      var minIdTags = mergedFeature.representingTags;
+      var pointDocument = new PointDocument();
+      var category = setIconColorCategory(pointDocument, minIdTags);
+      pointDocument.poiSource = "OSM";
+      pointDocument.poiLength = mergedFeature.length;
 
-      return true;
+      var point = GeoUtils.point(mergedFeature.start);
+      var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
+      pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+      convertTagsToDocument(pointDocument, minIdTags, category);
+      enrichWithContainers(pointDocument);
+      insertPointToElasticsearch(pointDocument, "OSM_way_" + mergedFeature.minId);
+
+      if (pointDocument.poiIcon == "icon-hike" ||
+          pointDocument.poiIcon == "icon-bike" ||
+          pointDocument.poiIcon == "icon-four-by-four") {
+        continue;
+      }
+      // This is a highway with a name, but it's not just a highway as it has a
+      // different icon, so adding it to the list of points.
+      mergeStage.addTilePoint(point, mergedFeature.representingTileFeatureId,
+          PointTileAttributes.of(pointDocument));
     }
   }
 
-  private boolean processOtherSourceFeature(SourceFeature feature, FeatureCollector features) throws GeometryException {
-    if (!feature.hasTag("name") &&
-        !feature.hasTag("wikidata") &&
-        !feature.hasTag("image") &&
-        !feature.hasTag("description") &&
-        !feature.hasTag("ref:IL:inature")) {
-      return false;
-    }
+  private static boolean isSearchable(SourceFeature feature) {
+    return feature.hasTag("name") ||
+        feature.hasTag("wikidata") ||
+        feature.hasTag("image") ||
+        feature.hasTag("description") ||
+        feature.hasTag("ref:IL:inature");
+  }
 
+  private boolean processOtherSourceFeature(SourceFeature feature, FeatureGeometry geometry,
+      FeatureCollector features, Category category) throws GeometryException {
     var tileId = feature.vectorTileFeatureId(config.featureSourceIdMultiplier());
     var docId = sourceFeatureToDocumentId(feature);
-    var point = feature.canBePolygon() ? (Point) feature.centroidIfConvex()
-        : GeoUtils.point(feature.worldGeometry().getCoordinate());
 
     var pointDocument = new PointDocument();
     if (feature.canBePolygon()) {
-      pointDocument.poiAreaNormalized = normalizeArea(feature.areaMeters());
+      pointDocument.poiAreaNormalized = normalizeArea(geometry.areaMeters());
     }
     pointDocument.poiSource = "OSM";
-    var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-    pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
+    pointDocument.location = geometry.location();
 
-    setIconColorCategory(pointDocument, feature);
+    setIconColorCategory(pointDocument, category);
 
     if (pointDocument.poiIcon == "icon-search") {
       return false;
@@ -653,7 +685,7 @@ public class PlanetSearchProfile implements Profile {
       return true;
     }
 
-    convertTagsToDocument(pointDocument, feature);
+    convertTagsToDocument(pointDocument, feature, category);
     enrichWithContainers(pointDocument);
     insertPointToElasticsearch(pointDocument, docId);
 
@@ -662,7 +694,7 @@ public class PlanetSearchProfile implements Profile {
       return true;
     }
 
-    var tileFeature = features.geometry(POINTS_LAYER_NAME, point)
+    var tileFeature = features.geometry(POINTS_LAYER_NAME, geometry.worldPoint())
         .setId(tileId);
 
     setFeaturePropertiesFromPointDocument(tileFeature, pointDocument);
@@ -677,7 +709,8 @@ public class PlanetSearchProfile implements Profile {
     return (float) Math.max(0.0, Math.min(1.0, norm));
   }
 
-  private void addNonIconFeaturesToElasricseach(SourceFeature feature) throws GeometryException {
+  private void addNonIconFeaturesToElasricseach(SourceFeature feature, FeatureGeometry geometry,
+      Category iconCategory) throws GeometryException {
     if (!feature.hasTag("name")) {
       return;
     }
@@ -691,19 +724,16 @@ public class PlanetSearchProfile implements Profile {
     pointDocument.poiCategory = category.poiCategory;
     pointDocument.poiSource = "OSM";
     var docId = sourceFeatureToDocumentId(feature);
-    var point = feature.canBePolygon() ? (Point) feature.centroidIfConvex()
-        : GeoUtils.point(feature.worldGeometry().getCoordinate());
-    var lngLatPoint = GeoUtils.worldToLatLonCoords(point).getCoordinate();
-    pointDocument.location = new double[] { lngLatPoint.getX(), lngLatPoint.getY() };
-    convertTagsToDocument(pointDocument, feature);
+    pointDocument.location = geometry.location();
+    convertTagsToDocument(pointDocument, feature, iconCategory);
     enrichWithContainers(pointDocument);
     insertPointToElasticsearch(pointDocument, docId);
   }
 
   private void insertPointToElasticsearch(PointDocument pointDocument, String docId) {
-    this.context.bulkListener().add(BulkOperation.of(op -> op
+    context().bulkListener().add(BulkOperation.of(op -> op
         .index(idx -> idx
-            .index(this.context.pointsIndexTarget())
+            .index(context().pointsIndexTarget())
             .id(docId)
             .document(pointDocument))));
   }
@@ -718,7 +748,7 @@ public class PlanetSearchProfile implements Profile {
     if (pointDocument.location == null) {
       return;
     }
-    var matches = this.context.containerIndex().containing(pointDocument.location[1], pointDocument.location[0]);
+    var matches = context().containerIndex().containing(pointDocument.location[1], pointDocument.location[0]);
     if (matches.isEmpty()) {
       return;
     }
@@ -727,11 +757,13 @@ public class PlanetSearchProfile implements Profile {
     Map<String, Set<String>> names = new LinkedHashMap<>();
     for (ContainerRecord match : matches) {
       match.names.forEach((lang, name) -> names.computeIfAbsent(lang, k -> new LinkedHashSet<>()).add(name));
+      // The matches come tightest first, so the first hit of a kind is the
+      // smallest one.
       if (match.isCountry()) {
-        if (country == null || match.area < country.area) {
+        if (country == null) {
           country = match;
         }
-      } else if (!sharesName(pointDocument, match) && (container == null || match.area < container.area)) {
+      } else if (container == null && !sharesName(pointDocument, match)) {
         container = match;
       }
     }
@@ -761,92 +793,73 @@ public class PlanetSearchProfile implements Profile {
     return false;
   }
 
-  private void insertBboxToElasticsearch(SourceFeature feature, String[] supportedLanguages) {
+  private void insertBboxToElasticsearch(SourceFeature feature, FeatureGeometry geometry) {
     var documentId = sourceFeatureToDocumentId(feature);
+    var bbox = new BBoxDocument();
+    bbox.adminLevel = feature.hasTag("admin_level") ? (int) OsmNumberParser.parseAdminLevel(feature) : 0;
+    for (LanguageTagKeys keys : languageKeys) {
+      CoalesceIntoMap(bbox.name, keys.language, feature.getString(keys.name));
+    }
+    CoalesceIntoMap(bbox.name, defaultKeys.language, feature.getString(defaultKeys.name));
+
+    var containerCache = context().containerCache();
+    long cacheKey = feature.vectorTileFeatureId(config.featureSourceIdMultiplier());
+    long polygonHash;
     Geometry polygon;
     try {
-      polygon = repairPolygonIfNeeded(GeoUtils.worldToLatLonCoords(feature.polygon()));
+      polygonHash = ContainerGeometryCache.hash(feature.polygon());
+      var cached = containerCache.get(cacheKey, polygonHash);
+      if (cached != null) {
+        // Unchanged since the previous build, nothing to prepare
+        bbox.area = cached.area();
+        bbox.center = cached.center();
+        indexBbox(documentId, bbox, cached.geometry());
+        return;
+      }
+      polygon = geometry.latLonPolygon();
+      bbox.area = geometry.areaMeters();
+      bbox.center = geometry.centroidLocation();
     } catch (GeometryException e) {
       return;
     }
-    if (polygon == null) {
-      return;
-    }
-    Geometry simplified = simplifyContainer(polygon);
+    // Simplifying and repairing the polygon can take seconds, see BBoxStage
+    bboxStage.submit(documentId, polygon, bbox.area, prepared -> {
+      containerCache.put(cacheKey, polygonHash, new ContainerGeometryCache.Entry(prepared, bbox.area, bbox.center));
+      indexBbox(documentId, bbox, prepared);
+    });
+  }
+
+  private void indexBbox(String documentId, BBoxDocument bbox, Geometry prepared) {
     try {
-      var bbox = new BBoxDocument();
-      bbox.area = feature.areaMeters();
-      bbox.adminLevel = feature.hasTag("admin_level") ? (int) feature.getLong("admin_level") : 0;
-      var lngLatCenterPoint = GeoUtils.worldToLatLonCoords(feature.centroid()).getCoordinate();
-      bbox.center = new double[] { lngLatCenterPoint.getX(), lngLatCenterPoint.getY() };
-      bbox.setBBox(simplified);
-      for (String lang : supportedLanguages) {
-        CoalesceIntoMap(bbox.name, lang, feature.getString("name:" + lang));
-      }
-      if (feature.hasTag("name")) {
-        CoalesceIntoMap(bbox.name, "default", feature.getString("name"));
-      }
-      this.context.bulkListener().add(BulkOperation.of(op -> op
+      bbox.setBBox(prepared);
+      context().bulkListener().add(BulkOperation.of(op -> op
           .index(idx -> idx
-              .index(this.context.bboxIndexTarget())
+              .index(context().bboxIndexTarget())
               .id(documentId)
               .document(bbox))));
     } catch (Exception e) {
-      this.context.bulkListener().recordFailure(this.context.bboxIndexTarget());
+      context().bulkListener().recordFailure(context().bboxIndexTarget());
       LOGGER.warn("Failed to index the bounding box of {}: {}", documentId, e.getMessage());
     }
   }
 
-  /**
-   * Containment near a border is fuzzy anyway; simplifying keeps geometry cheap
-   * to read and write.
-   */
-  private static Geometry simplifyContainer(Geometry polygon) {
-    try {
-      return TopologyPreservingSimplifier.simplify(polygon, CONTAINER_SIMPLIFY_DEGREES);
-    } catch (RuntimeException e) {
-      return polygon;
-    }
-  }
-
-  /**
-   * Repairs the polygon before indexing it. OSM boundaries are sometimes self
-   * intersecting,
-   * and Elasticsearch rejects such a polygon
-   * 
-   * @return a polygon Elasticsearch can index, or null when even that failed.
-   */
-  private static Geometry repairPolygonIfNeeded(Geometry polygon) {
-    if (polygon.isValid()) {
-      return polygon;
-    }
-    var fixed = GeometryFixer.fix(polygon);
-    if (fixed.isEmpty() || !fixed.isValid() || !(fixed instanceof Polygonal)) {
-      return null;
-    }
-    return fixed;
-  }
-
   /**
    * Get the first point of the trail relation by checking some heuristics related
    * to the relation's first member
    * 
-   * @param mergedLines - the merged lines helper
+   * @param firstMember  - the ends of the first member of the relation
+   * @param secondMember - the ends of the second member, null when there is none
    * @return the first point of the trail relation
-   * @throws GeometryException
    */
-  private Point getFirstPointOfLineRelation(SourceFeature firstMemberFeature, SourceFeature secondMemberFeature)
-      throws GeometryException {
-    if (secondMemberFeature == null) {
-      return GeoUtils.point(firstMemberFeature.worldGeometry().getCoordinate());
+  private Point getFirstPointOfLineRelation(MemberEnds firstMember, MemberEnds secondMember) {
+    if (secondMember == null) {
+      return GeoUtils.point(firstMember.start());
     }
 
-    var firstMemberGeometry = (LineString) firstMemberFeature.line();
-    var firstMemberStartCoordinate = firstMemberGeometry.getCoordinate();
-    var firstMemberEndCoordinate = firstMemberGeometry.getCoordinateN(firstMemberGeometry.getNumPoints() - 1);
-    var secondMemberGeometry = (LineString) secondMemberFeature.line();
-    var secondMemberStartCoordinate = secondMemberGeometry.getCoordinate();
-    var secondMemberEndCoordinate = secondMemberGeometry.getCoordinateN(secondMemberGeometry.getNumPoints() - 1);
+    var firstMemberStartCoordinate = firstMember.start();
+    var firstMemberEndCoordinate = firstMember.end();
+    var secondMemberStartCoordinate = secondMember.start();
+    var secondMemberEndCoordinate = secondMember.end();
 
     if (firstMemberStartCoordinate.equals2D(secondMemberStartCoordinate)
         || firstMemberStartCoordinate.equals2D(secondMemberEndCoordinate)) {
@@ -860,46 +873,41 @@ public class PlanetSearchProfile implements Profile {
   }
 
   /**
-   * This method removes relation members that are part of super relations and
-   * have completed the ways processing.
-   * This is done by checking for each new way that is being processed if it
-   * completes a relation,
-   * and remove that relation from the list of parent relations, this way at some
-   * point all the ways and relations are empty
-   * and it means we can continue processing them to add them to the database and
-   * tiles.
-   * It also keeps track of the first and second member features in case they are
-   * needed to determine the first point of the relation.
-   * 
-   * @param feature
+   * Emits the tile points of the merged way groups. The merges run on the
+   * {@link MergeStage} while the workers go on, so their points can only be
+   * added once the whole source was processed. Also waits for the bounding
+   * boxes still being prepared, so that all of them reach the indexer.
    */
-  private void handleSuperRelationMembersUpdate(SourceFeature feature) {
-    var removedElement = false;
-    do {
-      removedElement = false;
-      for (var routeInfo : feature.relationInfo(RelationInfo.class, true)) {
-        RelationInfo relation = routeInfo.relation();
-        if (!relation.waysMemberIds.isEmpty() || !relation.RelationMemberIds.isEmpty()) {
-          continue;
-        }
-        for (var superRouteInfo : feature.relationInfo(RelationInfo.class, true)) {
-          RelationInfo superRelation = superRouteInfo.relation();
-          if (!superRelation.isSuperRelation) {
-            continue;
-          }
-          synchronized (superRelation) {
-            if (superRelation.RelationMemberIds.remove(relation.id())) {
-              superRelation.length += relation.length;
-              removedElement = true;
-              if (superRelation.firstMemberId == relation.id()) {
-                superRelation.firstMemberFeature = relation.firstMemberFeature;
-                superRelation.secondMemberFeature = relation.secondMemberFeature;
-              }
-            }
-          }
-        }
+  @Override
+  public void finish(String sourceName, FeatureCollector.Factory featureCollectors,
+      Consumer<FeatureCollector.Feature> emit) {
+    bboxStage.drain();
+    for (var tilePoint : mergeStage.drain()) {
+      var collector = featureCollectors.get(SimpleFeature.fromWorldGeometry(tilePoint.point()));
+      var tileFeature = collector.geometry(POINTS_LAYER_NAME, tilePoint.point())
+          // Override the feature id with the minimal id of the group
+          .setId(tilePoint.id());
+      setTileAttributes(tileFeature, tilePoint.attributes());
+      for (var feature : collector) {
+        emit.accept(feature);
       }
-    } while (removedElement);
+    }
+  }
+
+  @Override
+  public void release() {
+    mergeStage.close();
+    bboxStage.close();
+    pendingWays.close();
+  }
+
+  /** Logs what the profile did during the build, once the run is over. */
+  public void logSummary() {
+    relevanceFilter.logSummary();
+    containerSimplifier.logSummary();
+    bboxStage.logSummary();
+    context().containerCache().logSummary();
+    mergeStage.logSummary();
   }
 
   private boolean isInterestingPoint(PointDocument pointDocument) {
@@ -908,37 +916,41 @@ public class PlanetSearchProfile implements Profile {
   }
 
   private void setFeaturePropertiesFromPointDocument(Feature tileFeature, PointDocument pointDocument) {
-    tileFeature.setAttr("wikidata", pointDocument.wikidata)
-        .setAttr("wikimedia_commons", pointDocument.wikimedia_commons)
-        .setAttr("image", pointDocument.image)
-        .setAttr("website", pointDocument.website)
-        .setAttr("poiIcon", pointDocument.poiIcon)
-        .setAttr("poiIconColor", pointDocument.poiIconColor)
-        .setAttr("poiCategory", pointDocument.poiCategory)
-        .setAttr("poiSource", pointDocument.poiSource)
-        .setAttr("poiLength", pointDocument.poiLength)
-        .setAttr("poiDifficulty", pointDocument.poiDifficulty)
+    setTileAttributes(tileFeature, PointTileAttributes.of(pointDocument));
+  }
+
+  private void setTileAttributes(Feature tileFeature, PointTileAttributes attributes) {
+    tileFeature.setAttr("wikidata", attributes.wikidata())
+        .setAttr("wikimedia_commons", attributes.wikimedia_commons())
+        .setAttr("image", attributes.image())
+        .setAttr("website", attributes.website())
+        .setAttr("poiIcon", attributes.poiIcon())
+        .setAttr("poiIconColor", attributes.poiIconColor())
+        .setAttr("poiCategory", attributes.poiCategory())
+        .setAttr("poiSource", attributes.poiSource())
+        .setAttr("poiLength", attributes.poiLength())
+        .setAttr("poiDifficulty", attributes.poiDifficulty())
         .setZoomRange(8, 14)
         .setBufferPixels(0);
-    for (String lang : this.context.supportedLanguages()) {
-      tileFeature.setAttr("name:" + lang, pointDocument.name.get(lang));
-      tileFeature.setAttr("description:" + lang, pointDocument.description.get(lang));
+    for (LanguageTagKeys keys : languageKeys) {
+      tileFeature.setAttr(keys.name, attributes.name().get(keys.language));
+      tileFeature.setAttr(keys.description, attributes.description().get(keys.language));
     }
-    if (pointDocument.name.containsKey("default")) {
-      tileFeature.setAttr("name", pointDocument.name.get("default"));
+    if (attributes.name().containsKey("default")) {
+      tileFeature.setAttr("name", attributes.name().get("default"));
     }
-    if (pointDocument.description.containsKey("default")) {
-      tileFeature.setAttr("description", pointDocument.description.get("default"));
+    if (attributes.description().containsKey("default")) {
+      tileFeature.setAttr("description", attributes.description().get("default"));
     }
   }
 
-  private boolean isBBoxFeature(SourceFeature feature, String[] supportedLanguages) {
+  private boolean isBBoxFeature(SourceFeature feature) {
     if (!feature.canBePolygon()) {
       return false;
     }
     var hasName = false;
-    for (String language : supportedLanguages) {
-      if (feature.hasTag("name:" + language)) {
+    for (LanguageTagKeys keys : languageKeys) {
+      if (feature.hasTag(keys.name)) {
         hasName = true;
         break;
       }
@@ -946,10 +958,11 @@ public class PlanetSearchProfile implements Profile {
     if (!feature.hasTag("name") && !hasName) {
       return false;
     }
-    var isFeatureADecentCity = feature.hasTag("boundary", "administrative") &&
-        feature.hasTag("admin_level") &&
-        feature.getLong("admin_level") > 0 &&
-        feature.getLong("admin_level") <= 8;
+    var isFeatureADecentCity = false;
+    if (feature.hasTag("boundary", "administrative") && feature.hasTag("admin_level")) {
+      long adminLevel = OsmNumberParser.parseAdminLevel(feature);
+      isFeatureADecentCity = adminLevel > 0 && adminLevel <= 8;
+    }
     if (isFeatureADecentCity) {
       return true;
     }
@@ -974,8 +987,13 @@ public class PlanetSearchProfile implements Profile {
         + feature.id();
   }
 
-  private void setIconColorCategory(PointDocument pointDocument, WithTags feature) {
+  private Category setIconColorCategory(PointDocument pointDocument, WithTags feature) {
     var category = OsmFeatureClassifier.classify(feature);
+    setIconColorCategory(pointDocument, category);
+    return category;
+  }
+
+  private static void setIconColorCategory(PointDocument pointDocument, Category category) {
     pointDocument.poiIcon = category.icon;
     pointDocument.poiIconColor = category.color;
     pointDocument.poiCategory = category.poiCategory;
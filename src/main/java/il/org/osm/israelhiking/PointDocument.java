@@ -2,12 +2,17 @@ package il.org.osm.israelhiking;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.JsonpSerializable;
+import jakarta.json.stream.JsonGenerator;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+/** Written by {@link DocumentWriters}, which must follow any change to the fields. */
 @JsonInclude(JsonInclude.Include.NON_NULL)
-class PointDocument {
+class PointDocument implements JsonpSerializable {
   public Map<String, String> name = new HashMap<String, String>();
   public Map<String, List<String>> alt_names;
   public Map<String, String> description = new HashMap<String, String>();
@@ -38,4 +43,8 @@ class PointDocument {
   public Integer population;
   public String poiFeatureClass;
 
+  @Override
+  public void serialize(JsonGenerator generator, JsonpMapper mapper) {
+    DocumentWriters.write(this, DocumentWriters.jackson(generator));
+  }
 }
\ No newline at end of file
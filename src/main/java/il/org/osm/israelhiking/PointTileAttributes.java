@@ -0,0 +1,32 @@
+package il.org.osm.israelhiking;
+
+import java.util.Map;
+
+/**
+ * The attributes of a {@link PointDocument} that its point in the tiles
+ * carries. The points of the merged way groups wait in the
+ * {@link MergeStage} until the end of the source, so they keep only these and
+ * not the whole document, whose containers and alternative names were already
+ * indexed.
+ */
+record PointTileAttributes(
+    String wikidata,
+    String wikimedia_commons,
+    String image,
+    String website,
+    String poiIcon,
+    String poiIconColor,
+    String poiCategory,
+    String poiSource,
+    double poiLength,
+    String poiDifficulty,
+    Map<String, String> name,
+    Map<String, String> description) {
+
+  static PointTileAttributes of(PointDocument pointDocument) {
+    return new PointTileAttributes(pointDocument.wikidata, pointDocument.wikimedia_commons, pointDocument.image,
+        pointDocument.website, pointDocument.poiIcon, pointDocument.poiIconColor, pointDocument.poiCategory,
+        pointDocument.poiSource, pointDocument.poiLength, pointDocument.poiDifficulty, pointDocument.name,
+        pointDocument.description);
+  }
+}
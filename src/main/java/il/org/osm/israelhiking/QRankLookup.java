@@ -5,29 +5,58 @@ import com.onthegomap.planetiler.collection.Hppc;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * The QRank of Wikidata entities. The gzipped CSV is parsed once into a
+ * binary cache next to it, {@code <csv>.bin}: a header, then the QIDs in
+ * ascending order, then their ranks in the same order. Later builds map that
+ * file and binary search it, so loading takes milliseconds and the table stays
+ * off the heap. The header records the size and the modification time of the
+ * CSV, so a new download is converted again.
+ *
+ * Lookups are absolute reads of the mapped buffer, so they are thread-safe.
+ */
 class QRankLookup {
   private static final Logger LOGGER = LoggerFactory.getLogger(QRankLookup.class);
 
-  private final LongIntHashMap qrankByQid;
+  private static final long MAGIC = 0x514b52414e4b3031L; // "QKRANK01"
+  /** Magic, CSV size, CSV modification time, count. */
+  static final int HEADER_BYTES = Long.BYTES * 4;
 
-  private QRankLookup(LongIntHashMap qrankByQid) {
-    this.qrankByQid = qrankByQid;
+  private final ByteBuffer table;
+  private final int count;
+
+  private QRankLookup(ByteBuffer table, int count) {
+    this.table = table;
+    this.count = count;
   }
 
   static QRankLookup empty() {
-    return new QRankLookup(Hppc.newLongIntHashMap());
+    return new QRankLookup(null, 0);
+  }
+
+  /** The binary cache of the given CSV. */
+  static Path cachePath(Path csvGz) {
+    return csvGz.resolveSibling(csvGz.getFileName() + ".bin");
   }
 
   static QRankLookup load(Path csvGz) {
@@ -36,6 +65,72 @@ class QRankLookup {
       return empty();
     }
     long startMs = System.currentTimeMillis();
+    long size;
+    long modified;
+    try {
+      size = Files.size(csvGz);
+      modified = Files.getLastModifiedTime(csvGz).toMillis();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("QRankLookup: failed to read " + csvGz + "; fix --qrank-path or omit it", e);
+    }
+    Path cache = cachePath(csvGz);
+    QRankLookup lookup = mapIfCurrent(cache, size, modified);
+    if (lookup != null) {
+      LOGGER.info("QRankLookup: mapped {} rows from {} in {}ms", lookup.count, cache,
+          System.currentTimeMillis() - startMs);
+      return lookup;
+    }
+    LongIntHashMap map = parse(csvGz);
+    try {
+      cache = write(map, cache, size, modified);
+    } catch (IOException e) {
+      LOGGER.warn("QRankLookup: cannot write {} ({}), converting into a temporary file for this build only",
+          cache, e.getMessage());
+      try {
+        Path temp = Files.createTempFile("qrank", ".bin");
+        temp.toFile().deleteOnExit();
+        cache = write(map, temp, size, modified);
+      } catch (IOException tempFailure) {
+        throw new IllegalStateException("QRankLookup: failed to write a QRank cache", tempFailure);
+      }
+    }
+    lookup = mapIfCurrent(cache, size, modified);
+    if (lookup == null) {
+      throw new IllegalStateException("QRankLookup: the QRank cache " + cache + " it just wrote is unreadable");
+    }
+    LOGGER.info("QRankLookup: converted {} rows from {} into {} in {}ms", lookup.count, csvGz, cache,
+        System.currentTimeMillis() - startMs);
+    return lookup;
+  }
+
+  /** @return the mapped cache, or null when it is missing, stale or damaged */
+  private static QRankLookup mapIfCurrent(Path cache, long csvSize, long csvModified) {
+    if (!Files.exists(cache)) {
+      return null;
+    }
+    try (var channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      if (fileSize < HEADER_BYTES) {
+        return null;
+      }
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+      long count = header.getLong(Long.BYTES * 3);
+      if (header.getLong(0) != MAGIC
+          || header.getLong(Long.BYTES) != csvSize
+          || header.getLong(Long.BYTES * 2) != csvModified
+          || count < 0 || fileSize != HEADER_BYTES + count * (Long.BYTES + Integer.BYTES)) {
+        return null;
+      }
+      // The mapping stays valid once the channel is closed
+      ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, fileSize - HEADER_BYTES);
+      return new QRankLookup(table, (int) count);
+    } catch (IOException e) {
+      LOGGER.warn("QRankLookup: ignoring the unreadable cache {}: {}", cache, e.getMessage());
+      return null;
+    }
+  }
+
+  private static LongIntHashMap parse(Path csvGz) {
     LongIntHashMap map = Hppc.newLongIntHashMap();
     long rows = 0;
     CsvParserSettings settings = new CsvParserSettings();
@@ -67,14 +162,37 @@ class QRankLookup {
       throw new IllegalArgumentException("QRankLookup: failed to read " + csvGz + " after " + rows
           + " rows; fix --qrank-path or omit it", e);
     }
-    long heapMb = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / (1024 * 1024);
-    LOGGER.info("QRankLookup: loaded {} rows from {} in {}ms (heap used ~{} MB)",
-        rows, csvGz, System.currentTimeMillis() - startMs, heapMb);
     if (rows == 0) {
       throw new IllegalArgumentException("QRankLookup: " + csvGz
           + " yielded 0 usable rows (expected a gzipped 'Entity,QRank' CSV); fix --qrank-path or omit it");
     }
-    return new QRankLookup(map);
+    return map;
+  }
+
+  /** Writes the sorted table through a temporary file, so that a reader never maps half a file. */
+  private static Path write(LongIntHashMap map, Path cache, long csvSize, long csvModified) throws IOException {
+    long[] qids = map.keys().toArray();
+    Arrays.sort(qids);
+    Path directory = cache.toAbsolutePath().getParent();
+    Path temp = Files.createTempFile(directory, cache.getFileName().toString(), ".tmp");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+        out.writeLong(MAGIC);
+        out.writeLong(csvSize);
+        out.writeLong(csvModified);
+        out.writeLong(qids.length);
+        for (long qid : qids) {
+          out.writeLong(qid);
+        }
+        for (long qid : qids) {
+          out.writeInt(map.get(qid));
+        }
+      }
+      Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return cache;
   }
 
   long qrankFor(String wikidata) {
@@ -86,14 +204,31 @@ class QRankLookup {
       end = wikidata.length();
     }
     try {
-      long qid = Long.parseLong(wikidata, 1, end, 10);
-      return qrankByQid.getOrDefault(qid, 0);
+      return qrankFor(Long.parseLong(wikidata, 1, end, 10));
     } catch (NumberFormatException e) {
       return 0;
     }
   }
 
+  /** Binary search over the sorted QIDs. */
+  int qrankFor(long qid) {
+    int low = 0;
+    int high = count - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long found = table.getLong(middle * Long.BYTES);
+      if (found < qid) {
+        low = middle + 1;
+      } else if (found > qid) {
+        high = middle - 1;
+      } else {
+        return table.getInt(count * Long.BYTES + middle * Integer.BYTES);
+      }
+    }
+    return 0;
+  }
+
   int size() {
-    return qrankByQid.size();
+    return count;
   }
 }
@@ -1,35 +1,145 @@
 package il.org.osm.israelhiking;
 
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
 
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+
+import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SourceFeature;
+import com.onthegomap.planetiler.reader.WithTags;
 import com.onthegomap.planetiler.reader.osm.OsmRelationInfo;
 
-// Minimal container for data we extract from OSM route relations. This is held in RAM so keep it small.
+import il.org.osm.israelhiking.OsmFeatureClassifier.Category;
+
+// Minimal container for data we extract from OSM route relations. This is held in RAM so keep it small:
+// the members are a countdown, only the tags the document reads are kept, as two arrays, and the document
+// is only built from them once every member was reached.
 public class RelationInfo implements OsmRelationInfo {
 
+    /** The start and end of a member, in world coordinates. */
+    record MemberEnds(Coordinate start, Coordinate end) {
+        static MemberEnds of(Geometry worldGeometry) {
+            if (worldGeometry instanceof LineString line) {
+                return new MemberEnds(line.getCoordinateN(0), line.getCoordinateN(line.getNumPoints() - 1));
+            }
+            Coordinate[] coordinates = worldGeometry.getCoordinates();
+            return new MemberEnds(coordinates[0], coordinates[coordinates.length - 1]);
+        }
+    }
+
     long _id;
 
-    RelationInfo(long id) {
+    /**
+     * @param keptTagKeys the keys of the tags the document is built from; the
+     *                    category was already classified from the others
+     */
+    RelationInfo(long id, Category category, Map<String, Object> tags, Set<String> keptTagKeys,
+            long[] wayMembers, long[] relationMembers) {
         this._id = id;
-        this.length = 0;
+        this.category = category;
+        int kept = 0;
+        for (String key : tags.keySet()) {
+            if (keptTagKeys.contains(key)) {
+                kept++;
+            }
+        }
+        this.tagKeys = new String[kept];
+        this.tagValues = new String[kept];
+        int i = 0;
+        for (var tag : tags.entrySet()) {
+            if (keptTagKeys.contains(tag.getKey())) {
+                tagKeys[i] = tag.getKey();
+                tagValues[i] = String.valueOf(tag.getValue());
+                i++;
+            }
+        }
+        this.relationMembers = sortedDistinct(relationMembers);
+        this.remainingMembers = new AtomicInteger(sortedDistinct(wayMembers).length + this.relationMembers.length);
+        // The start point is derived from the first two members, ways first
+        long[] ordered = wayMembers.length > 0 ? wayMembers : relationMembers;
+        this.firstMemberId = ordered.length > 0 ? ordered[0] : -1;
+        this.secondMemberId = ordered.length > 1 ? ordered[1] : -1;
     }
 
-    PointDocument pointDocument;
-
     // OSM ID of the relation (required):
     @Override
     public long id() {
         return this._id;
     }
 
-    boolean isSuperRelation;
-    Long firstMemberId;
-    Long secondMemberId;
-    List<Long> waysMemberIds;
-    List<Long> RelationMemberIds;
-    SourceFeature firstMemberFeature;
-    SourceFeature secondMemberFeature;
-    double length;
+    final Category category;
+    private final String[] tagKeys;
+    private final String[] tagValues;
+
+    final long firstMemberId;
+    final long secondMemberId;
+    /** The distinct member relations, to link them to this one as their parent. */
+    final long[] relationMembers;
+    /** The distinct member ways and relations that were not reached yet. */
+    private final AtomicInteger remainingMembers;
+    volatile MemberEnds firstMember;
+    volatile MemberEnds secondMember;
+    final DoubleAdder length = new DoubleAdder();
 
-}
\ No newline at end of file
+    private static long[] sortedDistinct(long[] ids) {
+        return Arrays.stream(ids).sorted().distinct().toArray();
+    }
+
+    /**
+     * Counts down a member way that was processed, or a member relation that
+     * completed. Every member must be reported exactly once, and only after
+     * its length and ends were recorded here.
+     *
+     * @return true for exactly one caller: the one that reported the last member
+     */
+    boolean memberReached() {
+        return remainingMembers.decrementAndGet() == 0;
+    }
+
+    /**
+     * Records the length of a member way and, for one of the first two members,
+     * its ends, and counts it down. A way whose geometry cannot be built, e.g.
+     * one whose nodes are missing from a clipped extract, adds neither, but is
+     * counted all the same, so that the relation and its parents still complete.
+     *
+     * @return true for exactly one caller, see {@link #memberReached}
+     */
+    boolean wayReached(SourceFeature way) {
+        boolean reached;
+        try {
+            long wayId = way.id();
+            MemberEnds ends = wayId == firstMemberId || wayId == secondMemberId
+                    ? MemberEnds.of(way.worldGeometry())
+                    : null;
+            double wayLength = way.lengthMeters();
+            if (wayId == firstMemberId) {
+                firstMember = ends;
+            }
+            if (wayId == secondMemberId) {
+                secondMember = ends;
+            }
+            length.add(wayLength);
+        } catch (GeometryException e) {
+            // Completes without this member
+        } finally {
+            reached = memberReached();
+        }
+        return reached;
+    }
+
+    /** The tags of the relation, to build its document from. */
+    WithTags tags() {
+        Map<String, Object> tags = new HashMap<>(tagKeys.length * 2);
+        for (int i = 0; i < tagKeys.length; i++) {
+            tags.put(tagKeys[i], tagValues[i]);
+        }
+        return WithTags.from(tags);
+    }
+}
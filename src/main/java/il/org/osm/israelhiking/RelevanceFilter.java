@@ -0,0 +1,69 @@
+package il.org.osm.israelhiking;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.onthegomap.planetiler.reader.WithTags;
+
+/**
+ * Tells apart the features no handler of the profile can use, i.e. the vast
+ * majority of unnamed buildings, roads and landuse, by their tag keys alone,
+ * so that they skip all the handlers at once. Every handler needs a name, an
+ * mtb:name or one of the few tags that make a point searchable; ways of a
+ * route relation are kept by the caller regardless of their tags.
+ * Thread-safe, the counters feed the build report.
+ */
+final class RelevanceFilter {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RelevanceFilter.class);
+
+  private final Set<String> relevantKeys = new HashSet<>();
+  private final LongAdder checked = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+
+  RelevanceFilter(LanguageTagKeys[] languageKeys, LanguageTagKeys defaultKeys) {
+    relevantKeys.add(defaultKeys.name);
+    relevantKeys.add(defaultKeys.mtbName);
+    relevantKeys.add(defaultKeys.description);
+    for (LanguageTagKeys keys : languageKeys) {
+      // a localized name alone is enough for a bounding box
+      relevantKeys.add(keys.name);
+    }
+    relevantKeys.add("wikidata");
+    relevantKeys.add("image");
+    relevantKeys.add("ref:IL:inature");
+  }
+
+  /** Whether any handler may use a feature with these tags, counted for the report. */
+  boolean hasRelevantTags(WithTags feature) {
+    checked.increment();
+    for (String key : feature.tags().keySet()) {
+      if (relevantKeys.contains(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void skip() {
+    skipped.increment();
+  }
+
+  long getChecked() {
+    return checked.sum();
+  }
+
+  long getSkipped() {
+    return skipped.sum();
+  }
+
+  void logSummary() {
+    long checkedCount = getChecked();
+    long skippedCount = getSkipped();
+    LOGGER.info("Early rejection: skipped {} of {} features ({}%)", skippedCount, checkedCount,
+        checkedCount == 0 ? 0 : Math.round(100.0 * skippedCount / checkedCount));
+  }
+}
@@ -3,15 +3,19 @@ package il.org.osm.israelhiking;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 
 /**
  * The search queries that the query side runs against the indices this repo
@@ -27,10 +31,15 @@ import co.elastic.clients.elasticsearch.ElasticsearchClient;
  * <li>{@code {{...}}} is left as is, and is expanded by Elasticsearch on every
  * search with the parameters the caller sends.</li>
  * </ul>
+ *
+ * A template id is a contract with the callers: a template may accept new
+ * parameters, but one that stops accepting a parameter is stored under a new
+ * id, and the old one is kept until the callers moved to it.
  */
 public final class SearchTemplates {
 
   public static final String POINTS_SEARCH = "points_search";
+  public static final String POINTS_SEARCH_V2 = "points_search_v2";
   public static final String POINTS_SEARCH_EXACT = "points_search_exact";
   public static final String BBOX_CONTAINER = "bbox_container";
   public static final String BBOX_CONTAINS = "bbox_contains";
@@ -39,15 +48,33 @@ public final class SearchTemplates {
   public static final Map<String, List<String>> PARAMETERS = Map.of(
       POINTS_SEARCH, List.of("searchTerm", "prefix", "hasCenter", "lat", "lng", "zoom",
           "hasPlaceShape", "placeShape", "place"),
+      POINTS_SEARCH_V2, List.of("searchTerm", "prefix", "hasCenter", "lat", "lng", "geoScaleKm", "geoWeight",
+          "viewportTop", "viewportBottom", "viewportLeft", "viewportRight", "viewportWeight",
+          "hasPlaceShape", "placeShape", "place"),
       POINTS_SEARCH_EXACT, List.of("searchTerm"),
       BBOX_CONTAINER, List.of("place", "prefix"),
       BBOX_CONTAINS, List.of("shape"));
 
-  private static final List<String> ALL = List.of(POINTS_SEARCH, POINTS_SEARCH_EXACT,
+  private static final List<String> ALL = List.of(POINTS_SEARCH, POINTS_SEARCH_V2, POINTS_SEARCH_EXACT,
       BBOX_CONTAINER, BBOX_CONTAINS);
 
+  /** The map center bias, see {@link #centerParameters}. */
+  private static final double DEFAULT_ZOOM = 12;
+  private static final double MAX_ZOOM = 22;
+  private static final double BETA_STEEPNESS = 0.7;
+  private static final double BETA_MIDPOINT = 8;
+  private static final double GEO_WEIGHT = 1.0;
+  private static final double MIN_SCALE_KM = 8.0;
+  private static final double VIEWPORT_BOOST = 0.15;
+  private static final double MIN_VIEWPORT_HALF_KM = 5;
+  private static final double MAX_VIEWPORT_HALF_KM = 400;
+  private static final double KM_PER_DEGREE = 111.0;
+
   private static final Pattern LANGUAGES_BLOCK = Pattern.compile(
       "\\[\\[#languages\\]\\](.*?)\\[\\[/languages\\]\\]", Pattern.DOTALL);
+  /** The variable {{#toJson}} writes, or a {{variable}} or a section. */
+  private static final Pattern MUSTACHE_VARIABLE = Pattern.compile(
+      "\\{\\{#toJson\\}\\}(\\w+)|\\{\\{[#^/]?(\\w+)\\}\\}");
 
   /** Static utility class should not be instantiated. */
   private SearchTemplates() {
@@ -68,6 +95,59 @@ public final class SearchTemplates {
     }
   }
 
+  /**
+   * Compares the templates this build would store with the ones stored in
+   * Elasticsearch, and lists every stored template that would stop accepting a
+   * parameter it accepts now. Storing it would break the callers that still
+   * send that parameter, so such a change belongs under a new template id.
+   *
+   * @return one line per broken template, empty when storing them is safe
+   */
+  public static List<String> contractChanges(ElasticsearchClient esClient, String[] allLanguages)
+      throws IOException {
+    var stored = new LinkedHashMap<String, String>();
+    for (var templateId : ALL) {
+      try {
+        var response = esClient.getScript(g -> g.id(templateId));
+        if (response.found() && response.script() != null) {
+          stored.put(templateId, response.script().source());
+        }
+      } catch (ElasticsearchException e) {
+        if (e.status() != 404) {
+          throw e;
+        }
+      }
+    }
+    return contractChanges(stored, renderAll(allLanguages));
+  }
+
+  static List<String> contractChanges(Map<String, String> stored, Map<String, String> rendered) {
+    var changes = new ArrayList<String>();
+    stored.forEach((templateId, storedSource) -> {
+      var source = rendered.get(templateId);
+      if (source == null) {
+        return;
+      }
+      var dropped = parametersOf(storedSource);
+      dropped.removeAll(parametersOf(source));
+      if (!dropped.isEmpty()) {
+        changes.add(templateId + " no longer accepts " + String.join(", ", dropped));
+      }
+    });
+    return changes;
+  }
+
+  /** @return the mustache parameters a rendered template reads, sorted. */
+  static Set<String> parametersOf(String source) {
+    var parameters = new TreeSet<String>();
+    var matcher = MUSTACHE_VARIABLE.matcher(source);
+    while (matcher.find()) {
+      parameters.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+    }
+    parameters.remove("toJson");
+    return parameters;
+  }
+
   /**
    * @return every template, rendered, keyed by its id - used by the search
    *         contract and by the tests.
@@ -80,6 +160,46 @@ public final class SearchTemplates {
     return templates;
   }
 
+  /**
+   * The parameters that bias points_search_v2 towards the center of the map.
+   * The zoom decides how much the center matters, how wide the gaussian decay
+   * around it is and how large the boosted viewport is. They are computed here,
+   * once per search, so that Elasticsearch scores every hit with its native
+   * decay and filter functions instead of a script; a caller that is not
+   * written in Java ports this method. points_search computes the same signals
+   * in a script from the raw {@code zoom}, for the callers that did not move
+   * yet.
+   *
+   * @param zoom the zoom level of the map, 0 or less when it is unknown
+   */
+  public static Map<String, Object> centerParameters(double lat, double lng, double zoom) {
+    double z = zoom <= 0 ? DEFAULT_ZOOM : Math.min(zoom, MAX_ZOOM);
+    // How much the center matters: little when the whole world is in view
+    double beta = 1.0 / (1.0 + Math.exp(-BETA_STEEPNESS * (z - BETA_MIDPOINT)));
+    double viewKm = Math.pow(2.2, 18 - z) * 0.1;
+    double halfKm = Math.max(MIN_VIEWPORT_HALF_KM,
+        Math.min(MAX_VIEWPORT_HALF_KM, Math.round(viewKm * 1000.0) / 1000.0 * 3.0));
+    double halfLat = halfKm / KM_PER_DEGREE;
+    double halfLng = halfKm / (KM_PER_DEGREE * Math.max(0.2, Math.cos(Math.toRadians(lat))));
+    var parameters = new LinkedHashMap<String, Object>();
+    parameters.put("hasCenter", true);
+    parameters.put("lat", lat);
+    parameters.put("lng", lng);
+    parameters.put("geoScaleKm", Math.max(MIN_SCALE_KM, viewKm));
+    parameters.put("geoWeight", GEO_WEIGHT * beta);
+    parameters.put("viewportTop", Math.min(90.0, lat + halfLat));
+    parameters.put("viewportBottom", Math.max(-90.0, lat - halfLat));
+    // Wrapped, so a viewport across the antimeridian has its left east of its right
+    parameters.put("viewportLeft", wrapLongitude(lng - halfLng));
+    parameters.put("viewportRight", wrapLongitude(lng + halfLng));
+    parameters.put("viewportWeight", VIEWPORT_BOOST * beta * beta);
+    return parameters;
+  }
+
+  private static double wrapLongitude(double lng) {
+    return lng >= -180.0 && lng <= 180.0 ? lng : ((lng + 540.0) % 360.0) - 180.0;
+  }
+
   /**
    * Reads a template and repeats every [[#languages]] block once per language,
    * joined by a comma, so that a block turns into a JSON list of per language
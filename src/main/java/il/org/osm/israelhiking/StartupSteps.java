@@ -0,0 +1,103 @@
+package il.org.osm.israelhiking;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the independent steps that prepare a build, like loading the QRank
+ * table and the containers or creating the indices, each on its own thread.
+ * Startup then takes as long as its slowest step rather than their sum, and
+ * the steps overlap the download of the extract, which Planetiler only starts
+ * in its run. Every step logs how long it took, and a failed one is logged
+ * as soon as it fails. It fails the build once it is awaited, or once
+ * {@link #throwIfAnyFailed} finds it.
+ */
+final class StartupSteps implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(StartupSteps.class);
+
+  /** A step of the startup, which may throw whatever its loader throws. */
+  @FunctionalInterface
+  interface Step<T> {
+    T run() throws Exception;
+  }
+
+  private final ExecutorService pool;
+  private final List<CompletableFuture<?>> started = new CopyOnWriteArrayList<>();
+
+  StartupSteps() {
+    var threadNumber = new AtomicInteger();
+    this.pool = Executors.newCachedThreadPool(runnable -> {
+      var thread = new Thread(runnable, "startup-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /** Starts the step right away, on a thread of its own. */
+  <T> CompletableFuture<T> start(String name, Step<T> step) {
+    var future = CompletableFuture.supplyAsync(() -> {
+      long startNanos = System.nanoTime();
+      try {
+        T result = step.run();
+        LOGGER.info("Startup: {} took {}ms", name, elapsedMillis(startNanos));
+        return result;
+      } catch (Exception e) {
+        LOGGER.error("Startup: {} failed after {}ms", name, elapsedMillis(startNanos), e);
+        throw new CompletionException(e);
+      }
+    }, pool);
+    started.add(future);
+    return future;
+  }
+
+  /**
+   * Rethrows the failure of the first step that already failed, like
+   * {@link #await}, without waiting for the steps that still run.
+   */
+  void throwIfAnyFailed() {
+    for (var future : started) {
+      if (future.isCompletedExceptionally()) {
+        await(future);
+      }
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Waits for a step, or for steps combined from them, and rethrows the
+   * exception a step failed with. A checked one is wrapped, since the
+   * profile, which awaits the steps, cannot throw it.
+   */
+  static <T> T await(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      if (cause instanceof Error error) {
+        throw error;
+      }
+      throw new IllegalStateException("A startup step failed", cause);
+    }
+  }
+
+  /** Interrupts the steps that still run, e.g. when the build failed before it needed them. */
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+}
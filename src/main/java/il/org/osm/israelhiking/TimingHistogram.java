@@ -0,0 +1,75 @@
+package il.org.osm.israelhiking;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe distribution of durations in power of two millisecond
+ * buckets: bucket 0 holds everything under 1 ms, bucket i holds
+ * [2^(i-1), 2^i) ms. Coarse, but enough to tell a long tail from a slow
+ * average, and cheap to record from every worker.
+ */
+final class TimingHistogram {
+  static final int BUCKETS = 32;
+
+  private final String name;
+  private final LongAdder[] counts = new LongAdder[BUCKETS];
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  TimingHistogram(String name) {
+    this.name = name;
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    counts[bucket(nanos / 1_000_000)].increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  static int bucket(long millis) {
+    if (millis <= 0) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+  }
+
+  long count() {
+    long count = 0;
+    for (LongAdder bucket : counts) {
+      count += bucket.sum();
+    }
+    return count;
+  }
+
+  /** The upper bound, in ms, of the bucket that holds the given quantile. */
+  long quantileMillis(double quantile) {
+    long count = count();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(quantile * count);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i].sum();
+      if (seen >= rank) {
+        return 1L << i;
+      }
+    }
+    return 1L << (BUCKETS - 1);
+  }
+
+  long maxMillis() {
+    return maxNanos.get() / 1_000_000;
+  }
+
+  String summary() {
+    long count = count();
+    long meanMillis = count == 0 ? 0 : totalNanos.sum() / count / 1_000_000;
+    return String.format("%s: %d, mean %d ms, p50 <%d ms, p90 <%d ms, p99 <%d ms, max %d ms",
+        name, count, meanMillis, quantileMillis(0.5), quantileMillis(0.9), quantileMillis(0.99), maxMillis());
+  }
+}
@@ -0,0 +1,190 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.Polygonal;
+
+@Tag("unit")
+public class BBoxStageTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static Polygon square(double size) {
+        return FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(35, 31),
+                new Coordinate(35 + size, 31),
+                new Coordinate(35 + size, 31 + size),
+                new Coordinate(35, 31 + size),
+                new Coordinate(35, 31)
+        });
+    }
+
+    /** Self intersecting, like a broken boundary. */
+    private static Polygon bowtie() {
+        return FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(35, 31),
+                new Coordinate(35.01, 31.01),
+                new Coordinate(35.01, 31),
+                new Coordinate(35, 31.01),
+                new Coordinate(35, 31)
+        });
+    }
+
+    @Test
+    public void validPolygonIsIndexedWithoutRepair() {
+        try (var stage = new BBoxStage(2, new ContainerSimplifier())) {
+            Geometry prepared = stage.prepare("square", square(0.01), 1e6);
+            assertTrue(prepared.isValid());
+            assertEquals(0, stage.getRepairTimes().count());
+            assertEquals(1, stage.getPrepareTimes().count());
+        }
+    }
+
+    @Test
+    public void invalidPolygonIsRepaired() {
+        try (var stage = new BBoxStage(2, new ContainerSimplifier())) {
+            Geometry prepared = stage.prepare("bowtie", bowtie(), 1e6);
+            assertNotNull(prepared);
+            assertTrue(prepared.isValid());
+            assertTrue(prepared instanceof Polygonal);
+            assertEquals(1, stage.getRepairTimes().count());
+            assertEquals(0, stage.getRejected());
+        }
+    }
+
+    @Test
+    public void drainWaitsForEveryPolygonEvenWhenTheQueueIsFull() {
+        Queue<String> indexed = new ConcurrentLinkedQueue<>();
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), TimeUnit.SECONDS.toNanos(5))) {
+            for (int i = 0; i < 50; i++) {
+                String id = "polygon " + i;
+                stage.submit(id, i % 2 == 0 ? square(0.01) : bowtie(), 1e6, prepared -> indexed.add(id));
+            }
+            stage.drain();
+            assertEquals(50, indexed.size());
+            assertEquals(50, stage.getPrepareTimes().count());
+        }
+    }
+
+    @Test
+    public void failingIndexerDoesNotBlockTheDrain() {
+        try (var stage = new BBoxStage(2, new ContainerSimplifier())) {
+            stage.submit("broken", square(0.01), 1e6, prepared -> {
+                throw new IllegalStateException("bulk closed");
+            });
+            stage.drain();
+            assertEquals(1, stage.getPrepareTimes().count());
+        }
+    }
+
+    @Test
+    public void slowPolygonIsCountedOverBudget() {
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), -1)) {
+            assertNotNull(stage.prepare("square", square(0.01), 1e6));
+            assertEquals(1, stage.getOverBudget());
+            assertFalse(stage.getPrepareTimes().summary().isEmpty());
+        }
+    }
+
+    @Test
+    public void invalidPolygonOverBudgetIsStillRepairedAndIndexed() {
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), -1)) {
+            Geometry prepared = stage.prepare("bowtie", bowtie(), 1e6);
+            assertNotNull(prepared);
+            assertTrue(prepared.isValid());
+            assertTrue(prepared instanceof Polygonal);
+            assertEquals(1, stage.getOverBudget());
+            assertEquals(1, stage.getRepairTimes().count());
+            assertEquals(0, stage.getFallbacks());
+            assertEquals(0, stage.getRejected());
+        }
+    }
+
+    @Test
+    public void polygonWithoutAnAreaIsDropped() {
+        var collapsed = FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(35, 31),
+                new Coordinate(35, 31.5),
+                new Coordinate(35, 32),
+                new Coordinate(35, 31)
+        });
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), -1)) {
+            assertNull(stage.prepare("collapsed", collapsed, 1e6));
+            assertEquals(0, stage.getFallbacks());
+            assertEquals(1, stage.getRejected());
+        }
+    }
+
+    @Test
+    public void submitWaitsWhileTheQueueIsFull() throws InterruptedException {
+        var release = new CountDownLatch(1);
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), TimeUnit.SECONDS.toNanos(5))) {
+            for (int i = 0; i < 2; i++) {
+                stage.submit("blocking " + i, square(0.01), 1e6, prepared -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            var submitted = new AtomicBoolean();
+            var submitter = new Thread(() -> {
+                stage.submit("waiting", square(0.01), 1e6, prepared -> {
+                });
+                submitted.set(true);
+            });
+            submitter.start();
+            submitter.join(200);
+            assertFalse(submitted.get(), "the thread and the queue are both taken");
+            release.countDown();
+            submitter.join(5000);
+            assertTrue(submitted.get());
+            stage.drain();
+            assertEquals(3, stage.getPrepareTimes().count());
+        }
+    }
+
+    @Test
+    public void interruptedDrainFails() {
+        var release = new CountDownLatch(1);
+        try (var stage = new BBoxStage(1, 1, new ContainerSimplifier(), TimeUnit.SECONDS.toNanos(5))) {
+            stage.submit("blocking", square(0.01), 1e6, prepared -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Thread.currentThread().interrupt();
+            assertThrows(IllegalStateException.class, stage::drain);
+            assertTrue(Thread.interrupted(), "the interrupt is kept");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void stagesShareAQuarterOfTheWorkersEach() {
+        assertEquals(1, PlanetSearchProfile.stageThreads(1));
+        assertEquals(1, PlanetSearchProfile.stageThreads(4));
+        assertEquals(4, PlanetSearchProfile.stageThreads(16));
+    }
+}
@@ -0,0 +1,129 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+@Tag("unit")
+public class ContainerGeometryCacheTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    @TempDir
+    Path tempDir;
+
+    private static Polygon square(double x, double y, double size) {
+        return FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(x, y),
+                new Coordinate(x + size, y),
+                new Coordinate(x + size, y + size),
+                new Coordinate(x, y + size),
+                new Coordinate(x, y)
+        });
+    }
+
+    private static ContainerGeometryCache.Entry entry(Polygon polygon) {
+        return new ContainerGeometryCache.Entry(polygon, 1234.5, new double[] { 35.05, 31.05 });
+    }
+
+    @Test
+    public void entriesSurviveBetweenBuilds() throws IOException {
+        Path path = tempDir.resolve("cache.bin");
+        var raw = square(0.1, 0.2, 0.01);
+        long hash = ContainerGeometryCache.hash(raw);
+
+        var first = ContainerGeometryCache.load(path);
+        assertNull(first.get(42, hash));
+        first.put(42, hash, entry(square(35, 31, 0.1)));
+        first.save();
+
+        var second = ContainerGeometryCache.load(path);
+        var cached = second.get(42, hash);
+        assertNotNull(cached);
+        assertTrue(cached.geometry().equalsExact(square(35, 31, 0.1)));
+        assertEquals(1234.5, cached.area());
+        assertArrayEquals(new double[] { 35.05, 31.05 }, cached.center());
+        assertEquals(1, second.getHits());
+    }
+
+    @Test
+    public void changedGeometryMisses() throws IOException {
+        Path path = tempDir.resolve("cache.bin");
+        var cache = ContainerGeometryCache.load(path);
+        cache.put(42, ContainerGeometryCache.hash(square(0.1, 0.2, 0.01)), entry(square(35, 31, 0.1)));
+        cache.save();
+
+        var reloaded = ContainerGeometryCache.load(path);
+        assertNull(reloaded.get(42, ContainerGeometryCache.hash(square(0.1, 0.2, 0.02))));
+        assertNull(reloaded.get(43, ContainerGeometryCache.hash(square(0.1, 0.2, 0.01))));
+        assertEquals(2, reloaded.getMisses());
+    }
+
+    @Test
+    public void unusedEntriesAreDroppedOnSave() throws IOException {
+        Path path = tempDir.resolve("cache.bin");
+        long hash = ContainerGeometryCache.hash(square(0.1, 0.2, 0.01));
+        var first = ContainerGeometryCache.load(path);
+        first.put(1, hash, entry(square(35, 31, 0.1)));
+        first.put(2, hash, entry(square(35, 31, 0.1)));
+        first.save();
+
+        var second = ContainerGeometryCache.load(path);
+        assertNotNull(second.get(1, hash));
+        second.save();
+
+        var third = ContainerGeometryCache.load(path);
+        assertNotNull(third.get(1, hash));
+        assertNull(third.get(2, hash));
+    }
+
+    @Test
+    public void corruptFileStartsOver() throws IOException {
+        Path path = tempDir.resolve("cache.bin");
+        Files.write(path, new byte[] { 1, 2, 3 });
+        var cache = ContainerGeometryCache.load(path);
+        assertNull(cache.get(1, 1));
+        cache.put(1, 1, entry(square(35, 31, 0.1)));
+        cache.save();
+        assertNotNull(ContainerGeometryCache.load(path).get(1, 1));
+    }
+
+    @Test
+    public void disabledCacheNeverHitsAndWritesNothing() throws IOException {
+        var cache = ContainerGeometryCache.disabled();
+        cache.put(1, 1, entry(square(35, 31, 0.1)));
+        cache.save();
+        assertNull(cache.get(1, 1));
+        try (var files = Files.list(tempDir)) {
+            assertFalse(files.findAny().isPresent());
+        }
+    }
+
+    @Test
+    public void hashDependsOnEveryCoordinateAndOnTheRings() {
+        var square = square(0.1, 0.2, 0.01);
+        assertEquals(ContainerGeometryCache.hash(square), ContainerGeometryCache.hash(square(0.1, 0.2, 0.01)));
+        assertNotEquals(ContainerGeometryCache.hash(square), ContainerGeometryCache.hash(square(0.1, 0.2, 0.0100001)));
+        var withHole = FACTORY.createPolygon(square.getExteriorRing(),
+                new LinearRing[] { square(0.102, 0.202, 0.001).getExteriorRing() });
+        assertNotEquals(ContainerGeometryCache.hash(square), ContainerGeometryCache.hash(withHole));
+        var twoParts = FACTORY.createMultiPolygon(new Polygon[] { square, square(0.2, 0.2, 0.01) });
+        assertNotEquals(ContainerGeometryCache.hash(square), ContainerGeometryCache.hash(twoParts));
+    }
+}
@@ -0,0 +1,89 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import il.org.osm.israelhiking.ContainerIndex.ContainerRecord;
+
+@Tag("unit")
+public class ContainerIndexTest {
+
+    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+    private static Polygon square(double minX, double minY, double maxX, double maxY) {
+        return GEOMETRY_FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(minX, minY),
+                new Coordinate(maxX, minY),
+                new Coordinate(maxX, maxY),
+                new Coordinate(minX, maxY),
+                new Coordinate(minX, minY)
+        });
+    }
+
+    private static ContainerRecord container(String name, int adminLevel, Polygon polygon) {
+        return new ContainerRecord(Map.of("default", name), adminLevel, polygon.getArea(), polygon);
+    }
+
+    private static List<String> names(List<ContainerRecord> records) {
+        return records.stream().map(r -> r.names.get("default")).toList();
+    }
+
+    private final ContainerIndex index = new ContainerIndex(List.of(
+            container("District", 4, square(1, 1, 5, 5)),
+            container("Country", 2, square(0, 0, 10, 10)),
+            container("City", 8, square(2, 2, 3, 3)),
+            container("Other city", 8, square(6, 6, 7, 7))));
+
+    @Test
+    public void returnsTheTightestContainerFollowedByItsParents() {
+        assertEquals(List.of("City", "District", "Country"), names(index.containing(2.5, 2.5)));
+    }
+
+    @Test
+    public void skipsLevelsThePointIsNotIn() {
+        assertEquals(List.of("District", "Country"), names(index.containing(4, 4)));
+        assertEquals(List.of("Other city", "Country"), names(index.containing(6.5, 6.5)));
+    }
+
+    /** A park across the line between two districts, inside the country. */
+    private final ContainerIndex overlapping = new ContainerIndex(List.of(
+            container("Country", 2, square(0, 0, 10, 10)),
+            container("West district", 4, square(0, 0, 5, 10)),
+            container("East district", 4, square(5, 0, 10, 10)),
+            container("Park", 0, square(3, 3, 6, 4))));
+
+    @Test
+    public void containerAcrossALineKeepsBothSides() {
+        assertEquals(List.of("Park", "West district", "Country"), names(overlapping.containing(3.5, 4)));
+        assertEquals(List.of("Park", "East district", "Country"), names(overlapping.containing(3.5, 5.5)));
+    }
+
+    @Test
+    public void partlyOverlappingContainerIsNotAnAncestor() {
+        // Most of the park is in the west district, which must not be inferred for the east part
+        var index = new ContainerIndex(List.of(
+                container("West district", 4, square(0, 0, 5, 10)),
+                container("Park", 0, square(3, 3, 6, 4))));
+        assertEquals(List.of("Park"), names(index.containing(3.5, 5.5)));
+        assertEquals(List.of("Park", "West district"), names(index.containing(3.5, 4.5)));
+    }
+
+    @Test
+    public void pointOutsideEveryContainerHasNoContainers() {
+        assertTrue(index.containing(20, 20).isEmpty());
+    }
+
+    @Test
+    public void emptyIndexHasNoContainers() {
+        assertTrue(new ContainerIndex(List.of()).containing(2.5, 2.5).isEmpty());
+    }
+}
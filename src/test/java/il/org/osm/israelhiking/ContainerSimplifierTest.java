@@ -0,0 +1,154 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.algorithm.distance.DiscreteHausdorffDistance;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+@Tag("unit")
+public class ContainerSimplifierTest {
+
+    /** A wiggly circle, like a coastline, with the given number of vertices. */
+    private static Polygon coastline(double radiusDegrees, int vertices) {
+        var coordinates = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = radiusDegrees * (1 + 0.002 * Math.sin(angle * 500));
+            coordinates[i] = new Coordinate(35 + radius * Math.cos(angle), 31 + radius * Math.sin(angle));
+        }
+        coordinates[vertices] = coordinates[0];
+        return new GeometryFactory().createPolygon(coordinates);
+    }
+
+    @Test
+    public void budgetGrowsWithAreaWithinBounds() {
+        assertEquals(ContainerSimplifier.MIN_VERTICES, ContainerSimplifier.vertexBudget(0));
+        assertEquals(ContainerSimplifier.MIN_VERTICES, ContainerSimplifier.vertexBudget(1_000_000));
+        assertEquals(ContainerSimplifier.MAX_VERTICES, ContainerSimplifier.vertexBudget(1e13));
+        assertTrue(ContainerSimplifier.vertexBudget(2e10) > ContainerSimplifier.vertexBudget(1e9),
+                "a country should get a bigger budget than a district");
+    }
+
+    @Test
+    public void hugePolygonIsSimplifiedToItsBudget() {
+        var simplifier = new ContainerSimplifier();
+        double area = 2e10;
+        Geometry simplified = simplifier.simplify(coastline(1, 50_000), area);
+        assertTrue(simplified.getNumPoints() <= ContainerSimplifier.vertexBudget(area),
+                "expected at most the budget, got " + simplified.getNumPoints());
+        assertTrue(simplified.isValid());
+    }
+
+    @Test
+    public void polygonWithinItsBudgetIsLeftAsIs() {
+        var simplifier = new ContainerSimplifier();
+        Polygon village = coastline(0.005, 20);
+        assertSame(village, simplifier.simplify(village, 1_000_000));
+    }
+
+    @Test
+    public void countsVerticesBeforeAndAfter() {
+        var simplifier = new ContainerSimplifier();
+        simplifier.simplify(coastline(0.005, 20), 1_000_000);
+        simplifier.simplify(coastline(1, 50_000), 2e10);
+        assertEquals(21 + 50_001, simplifier.getVerticesBefore());
+        assertTrue(simplifier.getVerticesAfter() < simplifier.getVerticesBefore());
+    }
+
+    /** A star with spikes deeper than the first tolerance, so that one round is never enough. */
+    private static Polygon star(int spikes) {
+        var coordinates = new Coordinate[spikes * 2 + 1];
+        for (int i = 0; i < spikes * 2; i++) {
+            double angle = Math.PI * i / spikes;
+            double radius = i % 2 == 0 ? 0.001 : 0.0009;
+            coordinates[i] = new Coordinate(35 + radius * Math.cos(angle), 31 + radius * Math.sin(angle));
+        }
+        coordinates[spikes * 2] = coordinates[0];
+        return new GeometryFactory().createPolygon(coordinates);
+    }
+
+    @Test
+    public void exhaustedTimeBudgetGoesStraightToTheCoarsestTolerance() {
+        var simplifier = new ContainerSimplifier();
+        Geometry simplified = simplifier.simplify(star(3_000), 1e13, 0);
+        assertEquals(1, simplifier.getOverBudget());
+        assertTrue(simplified.getNumPoints() < 6_001);
+        assertTrue(simplified.isValid());
+    }
+
+    @Test
+    public void withinTimeBudgetIsNotCounted() {
+        var simplifier = new ContainerSimplifier();
+        simplifier.simplify(star(3_000), 1e13);
+        assertEquals(0, simplifier.getOverBudget());
+    }
+
+    /**
+     * A ~1 km² village at 31°N whose outline has ~30 m notches every ~25 m,
+     * far more vertices than its budget.
+     */
+    private static Polygon notchedVillage() {
+        double side = 0.009;
+        double depth = 0.0003;
+        int teeth = 36;
+        List<Coordinate> coordinates = new ArrayList<>();
+        double[][] corners = { { 0, 0 }, { side, 0 }, { side, side }, { 0, side } };
+        for (int c = 0; c < 4; c++) {
+            double[] from = corners[c];
+            double[] to = corners[(c + 1) % 4];
+            // The inward normal of a counterclockwise ring
+            double nx = -(to[1] - from[1]) / side;
+            double ny = (to[0] - from[0]) / side;
+            for (int t = 0; t < teeth; t++) {
+                double f0 = (double) t / teeth;
+                double f1 = (t + 0.5) / teeth;
+                double x0 = from[0] + (to[0] - from[0]) * f0;
+                double y0 = from[1] + (to[1] - from[1]) * f0;
+                double x1 = from[0] + (to[0] - from[0]) * f1;
+                double y1 = from[1] + (to[1] - from[1]) * f1;
+                coordinates.add(new Coordinate(35 + x0, 31 + y0));
+                // Keep the notches clear of the corners, where two sides' notches would cross
+                if (t > 1 && t < teeth - 2) {
+                    coordinates.add(new Coordinate(35 + x0 + nx * depth, 31 + y0 + ny * depth));
+                    coordinates.add(new Coordinate(35 + x1 + nx * depth, 31 + y1 + ny * depth));
+                }
+                coordinates.add(new Coordinate(35 + x1, 31 + y1));
+            }
+        }
+        coordinates.add(coordinates.getFirst());
+        return new GeometryFactory().createPolygon(coordinates.toArray(Coordinate[]::new));
+    }
+
+    @Test
+    public void smallVillageKeepsItsShape() {
+        var simplifier = new ContainerSimplifier();
+        Polygon village = notchedVillage();
+        double area = 1e6;
+        assertTrue(village.isValid());
+        assertTrue(village.getNumPoints() > ContainerSimplifier.vertexBudget(area));
+        Geometry simplified = simplifier.simplify(village, area);
+        double maxTolerance = ContainerSimplifier.maxTolerance(area);
+        assertTrue(maxTolerance < 0.0001, "a 1 km² village may move by meters, not by a kilometer");
+        assertTrue(DiscreteHausdorffDistance.distance(village, simplified) <= maxTolerance + 1e-12,
+                "the outline moved by more than the tolerance cap");
+        assertEquals(village.getArea(), simplified.getArea(), village.getArea() * 0.01);
+        assertTrue(simplified.isValid());
+    }
+
+    @Test
+    public void toleranceCapGrowsWithAreaUpToTheCoarsest() {
+        assertEquals(0, ContainerSimplifier.maxTolerance(0));
+        assertTrue(ContainerSimplifier.maxTolerance(1e6) < ContainerSimplifier.maxTolerance(1e8));
+        assertEquals(ContainerSimplifier.MAX_TOLERANCE_DEGREES, ContainerSimplifier.maxTolerance(1e13));
+    }
+}
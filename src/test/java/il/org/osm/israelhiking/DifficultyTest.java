@@ -0,0 +1,57 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+@Tag("unit")
+public class DifficultyTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "none, Easy",
+        "T1, Moderate",
+        "T2, Hard",
+        "T3, Very Hard",
+        "T6, Very Hard",
+    })
+    public void sacScale(String value, String label) {
+        assertEquals(label, Difficulty.fromSacScale(value).label);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "0, Easy",
+        "1, Moderate",
+        "2, Hard",
+        "3, Very Hard",
+        "6, Very Hard",
+    })
+    public void mtbScale(String value, String label) {
+        assertEquals(label, Difficulty.fromMtbScale(value).label);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "grade1, Easy",
+        "grade2, Easy",
+        "grade3, Moderate",
+        "grade4, Hard",
+        "grade5, Very Hard",
+    })
+    public void tracktype(String value, String label) {
+        assertEquals(label, Difficulty.fromTracktype(value).label);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "T0", "T7", "t1", "None", "1+", "7", "grade6", "grade", "grade12", "mountain_hiking" })
+    public void unknownValuesHaveNoDifficulty(String value) {
+        assertNull(Difficulty.fromSacScale(value));
+        assertNull(Difficulty.fromMtbScale(value));
+        assertNull(Difficulty.fromTracktype(value));
+    }
+}
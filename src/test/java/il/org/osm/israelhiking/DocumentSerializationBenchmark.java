@@ -0,0 +1,129 @@
+package il.org.osm.israelhiking;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+
+/**
+ * Compares the {@link DocumentWriters} with the reflective serialization of
+ * the client's {@code JacksonJsonpMapper}, writing to a sink so that only the
+ * serialization is measured. For the bounding boxes, the baseline writes the
+ * same document with its shape converted to the nested lists it used to be.
+ * Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=il.org.osm.israelhiking.DocumentSerializationBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentSerializationBenchmark {
+
+    /** Counts the bytes, so that the output is consumed but not kept. */
+    private static final class CountingSink extends OutputStream {
+        long bytes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+
+    private final CountingSink sink = new CountingSink();
+    private ObjectMapper objectMapper;
+    private JsonGenerator generator;
+    private PointDocument pointDocument;
+    private BBoxDocument bboxDocument;
+
+    @Setup
+    public void setUp() throws IOException {
+        objectMapper = new JacksonJsonpMapper().objectMapper();
+        generator = objectMapper.getFactory().createGenerator(sink);
+        pointDocument = DocumentWritersTest.fullPointDocument();
+        bboxDocument = DocumentWritersTest.bboxDocument();
+        // A country outline at the vertex budget of ContainerSimplifier
+        bboxDocument.setBBox(coastline(ContainerSimplifier.MAX_VERTICES));
+    }
+
+    private static Polygon coastline(int vertices) {
+        var coordinates = new Coordinate[vertices + 1];
+        for (int i = 0; i < vertices; i++) {
+            double angle = 2 * Math.PI * i / vertices;
+            double radius = 1 + 0.002 * Math.sin(angle * 500);
+            coordinates[i] = new Coordinate(35 + radius * Math.cos(angle), 31 + radius * Math.sin(angle));
+        }
+        coordinates[vertices] = coordinates[0];
+        return new GeometryFactory().createPolygon(coordinates);
+    }
+
+    @Benchmark
+    public void pointReflective(Blackhole blackhole) throws IOException {
+        objectMapper.writeValue(generator, pointDocument);
+        generator.flush();
+        blackhole.consume(sink.bytes);
+    }
+
+    @Benchmark
+    public void pointWriter(Blackhole blackhole) throws IOException {
+        DocumentWriters.write(pointDocument, generator);
+        generator.flush();
+        blackhole.consume(sink.bytes);
+    }
+
+    /**
+     * How the whole document was written before: the shape converted to nested
+     * lists of boxed doubles, then every field reflectively.
+     */
+    @Benchmark
+    public void bboxNestedLists(Blackhole blackhole) throws IOException {
+        objectMapper.writeValue(generator, DocumentWritersTest.legacyFields(bboxDocument));
+        generator.flush();
+        blackhole.consume(sink.bytes);
+    }
+
+    @Benchmark
+    public void bboxWriter(Blackhole blackhole) throws IOException {
+        DocumentWriters.write(bboxDocument, generator);
+        generator.flush();
+        blackhole.consume(sink.bytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(DocumentSerializationBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
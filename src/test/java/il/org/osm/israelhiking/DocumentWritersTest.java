@@ -0,0 +1,197 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import co.elastic.clients.json.JsonpMapper;
+import co.elastic.clients.json.jackson.JacksonJsonpMapper;
+import jakarta.json.stream.JsonGenerator;
+
+@Tag("unit")
+public class DocumentWritersTest {
+
+    /** Configured like the client of the build, see ElasticsearchHelper. */
+    private static final JacksonJsonpMapper MAPPER = new JacksonJsonpMapper();
+
+    /** Through the client, i.e. through the writers. */
+    private static String written(Object document, JsonpMapper mapper) {
+        var json = new StringWriter();
+        try (var generator = mapper.jsonProvider().createGenerator(json)) {
+            mapper.serialize(document, generator);
+        }
+        return json.toString();
+    }
+
+    /** The reflective serialization the writers replace. */
+    private static String reflective(Object document) throws Exception {
+        return MAPPER.objectMapper().writeValueAsString(document);
+    }
+
+    static PointDocument fullPointDocument() {
+        var document = new PointDocument();
+        document.name.put("default", "Ein Gedi \"spring\"");
+        document.name.put("he", "עין גדי");
+        document.name.put("en", "Ein Gedi");
+        document.alt_names = new HashMap<>();
+        document.alt_names.put("en", List.of("En Gedi", "Ain Jidi"));
+        document.description.put("en", "A spring\nwith a waterfall");
+        document.poiParentNames = new LinkedHashMap<>();
+        document.poiParentNames.put("en", new ArrayList<>(List.of("Ein Gedi Nature Reserve", "Israel")));
+        document.poiContainer = Map.of("en", "Ein Gedi Nature Reserve");
+        document.poiCountry = Map.of("en", "Israel", "he", "ישראל");
+        document.wikidata = "Q1201838";
+        document.image = "https://upload.wikimedia.org/a.jpg";
+        document.wikimedia_commons = "File:A.jpg";
+        document.poiCategory = "Water";
+        document.poiIcon = "icon-tint";
+        document.poiIconColor = "blue";
+        document.poiSource = "OSM";
+        document.poiDifficulty = "Very Hard";
+        document.poiLength = 1234.5678;
+        document.website = "https://www.parks.org.il";
+        document.location = new double[] { 35.3871, 31.4669 };
+        document.poiProminence = 0.1f;
+        document.poiAreaNormalized = 1.0E-5f;
+        document.intermittent = true;
+        document.population = 2000;
+        document.poiFeatureClass = "natural";
+        return document;
+    }
+
+    static BBoxDocument bboxDocument() {
+        var factory = new GeometryFactory();
+        LinearRing shell = factory.createLinearRing(new Coordinate[] {
+                new Coordinate(35, 31), new Coordinate(35.1, 31), new Coordinate(35.1, 31.1),
+                new Coordinate(35, 31.1), new Coordinate(35, 31) });
+        LinearRing hole = factory.createLinearRing(new Coordinate[] {
+                new Coordinate(35.01, 31.01), new Coordinate(35.02, 31.01), new Coordinate(35.02, 31.02),
+                new Coordinate(35.01, 31.01) });
+        var document = new BBoxDocument();
+        document.name.put("default", "Jerusalem");
+        document.name.put("he", "ירושלים");
+        document.area = 1.25e8;
+        document.center = new double[] { 35.05, 31.05 };
+        document.adminLevel = 8;
+        document.setBBox(factory.createMultiPolygon(new Polygon[] {
+                factory.createPolygon(shell, new LinearRing[] { hole }),
+                factory.createPolygon(new Coordinate[] {
+                        new Coordinate(36, 32), new Coordinate(36.5, 32), new Coordinate(36, 32.5),
+                        new Coordinate(36, 32) }) }));
+        return document;
+    }
+
+    @Test
+    public void fullPointDocumentIsWrittenLikeJackson() throws Exception {
+        var document = fullPointDocument();
+        assertEquals(reflective(document), written(document, MAPPER));
+    }
+
+    @Test
+    public void minimalPointDocumentIsWrittenLikeJackson() throws Exception {
+        var document = new PointDocument();
+        document.poiProminence = null;
+        assertEquals(reflective(document), written(document, MAPPER));
+        assertEquals(reflective(new PointDocument()), written(new PointDocument(), MAPPER));
+    }
+
+    /**
+     * The shape as BBoxDocument used to hold it, as nested lists of boxed
+     * doubles in a HashMap, to check that streaming it writes the same bytes.
+     */
+    static Map<String, Object> legacyGeoJson(Geometry geometry) {
+        Map<String, Object> shape = new HashMap<>();
+        shape.put("type", geometry.getGeometryType().toLowerCase());
+        if (geometry instanceof Polygon polygon) {
+            shape.put("coordinates", legacyPolygon(polygon));
+        } else {
+            List<Object> polygons = new ArrayList<>();
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                polygons.add(legacyPolygon((Polygon) geometry.getGeometryN(i)));
+            }
+            shape.put("coordinates", polygons);
+        }
+        return shape;
+    }
+
+    private static List<List<List<Double>>> legacyPolygon(Polygon polygon) {
+        List<List<List<Double>>> rings = new ArrayList<>();
+        rings.add(legacyRing(polygon.getExteriorRing()));
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            rings.add(legacyRing(polygon.getInteriorRingN(i)));
+        }
+        return rings;
+    }
+
+    private static List<List<Double>> legacyRing(LineString ring) {
+        List<List<Double>> coordinates = new ArrayList<>();
+        for (Coordinate coordinate : ring.getCoordinates()) {
+            coordinates.add(Arrays.asList(coordinate.x, coordinate.y));
+        }
+        return coordinates;
+    }
+
+    /** The document as Jackson wrote it when the shape was a map. */
+    private static String legacy(BBoxDocument document) throws Exception {
+        return reflective(legacyFields(document));
+    }
+
+    /** The fields of the document as they were before the writers, with the shape as nested lists. */
+    static Map<String, Object> legacyFields(BBoxDocument document) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("name", document.name);
+        if (document.bbox != null) {
+            fields.put("bbox", legacyGeoJson(document.bbox));
+        }
+        fields.put("area", document.area);
+        if (document.center != null) {
+            fields.put("center", document.center);
+        }
+        fields.put("adminLevel", document.adminLevel);
+        return fields;
+    }
+
+    @Test
+    public void bboxDocumentIsWrittenLikeTheNestedLists() throws Exception {
+        var document = bboxDocument();
+        assertEquals(legacy(document), written(document, MAPPER));
+        var polygon = new BBoxDocument();
+        polygon.setBBox(new GeometryFactory().createPolygon(new Coordinate[] {
+                new Coordinate(35, 31), new Coordinate(35.1, 31), new Coordinate(35, 31.1), new Coordinate(35, 31) }));
+        assertEquals(legacy(polygon), written(polygon, MAPPER));
+    }
+
+    @Test
+    public void emptyBBoxDocumentIsWrittenLikeJackson() throws Exception {
+        assertEquals(reflective(new BBoxDocument()), written(new BBoxDocument(), MAPPER));
+    }
+
+    @Test
+    public void onlyPolygonsAreAccepted() {
+        var point = new GeometryFactory().createPoint(new Coordinate(35, 31));
+        assertThrows(UnsupportedOperationException.class, () -> new BBoxDocument().setBBox(point));
+    }
+
+    @Test
+    public void otherGeneratorsAreRejected() {
+        var generator = mock(JsonGenerator.class);
+        assertThrows(IllegalArgumentException.class, () -> new PointDocument().serialize(generator, MAPPER));
+    }
+}
@@ -0,0 +1,82 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+
+@Tag("unit")
+public class FeatureGeometryTest {
+
+    private static final GeometryFactory FACTORY = new GeometryFactory();
+
+    private static SourceFeature square() {
+        var polygon = FACTORY.createPolygon(new Coordinate[] {
+                new Coordinate(35.0, 32.0),
+                new Coordinate(35.1, 32.0),
+                new Coordinate(35.1, 32.1),
+                new Coordinate(35.0, 32.1),
+                new Coordinate(35.0, 32.0)
+        });
+        return SimpleFeature.create(polygon, Map.of("name", "square"), "OSM", "Polygons", 1);
+    }
+
+    @Test
+    public void polygonLocationIsItsCentroid() throws GeometryException {
+        var geometry = new FeatureGeometry(square());
+
+        double[] location = geometry.location();
+
+        assertEquals(35.05, location[0], 1e-6);
+        assertEquals(32.05, location[1], 1e-3);
+    }
+
+    @Test
+    public void pointLocationIsThePoint() throws GeometryException {
+        var point = SimpleFeature.create(FACTORY.createPoint(new Coordinate(35.2, 31.7)), Map.of(), "OSM", "Points", 2);
+
+        assertArrayEquals(new double[] { 35.2, 31.7 }, new FeatureGeometry(point).location(), 1e-9);
+    }
+
+    @Test
+    public void derivedGeometriesAreComputedOnce() throws GeometryException {
+        var geometry = new FeatureGeometry(square());
+
+        assertSame(geometry.worldPoint(), geometry.worldPoint());
+        assertSame(geometry.latLonPolygon(), geometry.latLonPolygon());
+        assertEquals(geometry.areaMeters(), geometry.areaMeters());
+        assertTrue(geometry.areaMeters() > 0);
+    }
+
+    @Test
+    public void locationsAreNotSharedBetweenDocuments() throws GeometryException {
+        var geometry = new FeatureGeometry(square());
+
+        double[] first = geometry.location();
+        double[] second = geometry.location();
+
+        assertNotSame(first, second);
+        assertArrayEquals(first, second);
+        assertNotSame(geometry.centroidLocation(), geometry.centroidLocation());
+    }
+
+    @Test
+    public void latLonPolygonIsInLatLon() throws GeometryException {
+        var envelope = new FeatureGeometry(square()).latLonPolygon().getEnvelopeInternal();
+
+        assertEquals(35.0, envelope.getMinX(), 1e-9);
+        assertEquals(32.1, envelope.getMaxY(), 1e-9);
+    }
+}
@@ -0,0 +1,60 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.onthegomap.planetiler.reader.WithTags;
+
+@Tag("unit")
+public class LanguageTagKeysTest {
+
+    private static final List<String> ALTERNATIVE_NAME_TAGS = List.of("alt_name", "old_name");
+
+    @Test
+    public void resolvesTheKeysOfEveryLanguage() {
+        var keys = LanguageTagKeys.forLanguages(new String[] { "he", "en" }, ALTERNATIVE_NAME_TAGS);
+        assertEquals("he", keys[0].language);
+        assertEquals("name:he", keys[0].name);
+        assertEquals("description:he", keys[0].description);
+        assertEquals("mtb:name:he", keys[0].mtbName);
+        assertEquals(List.of("alt_name:en", "old_name:en"), List.of(keys[1].alternativeNames));
+    }
+
+    @Test
+    public void defaultLanguageReadsTheUnsuffixedTags() {
+        var keys = LanguageTagKeys.forDefault(ALTERNATIVE_NAME_TAGS);
+        assertEquals("default", keys.language);
+        assertEquals("name", keys.name);
+        assertEquals("mtb:name", keys.mtbName);
+        assertEquals(List.of("alt_name", "old_name"), List.of(keys.alternativeNames));
+    }
+
+    @Test
+    public void splitsTrimsAndDeduplicatesAlternativeNames() {
+        var keys = LanguageTagKeys.forDefault(ALTERNATIVE_NAME_TAGS);
+        var feature = WithTags.from(Map.of(
+                "alt_name", " A ; B;;  ;A",
+                "old_name", "B;C;"));
+        assertEquals(List.of("A", "B", "C"), keys.alternativeNames(feature));
+    }
+
+    @Test
+    public void singleCleanNameIsNotCopied() {
+        var keys = LanguageTagKeys.forDefault(ALTERNATIVE_NAME_TAGS);
+        String value = "Old town";
+        assertSame(value, keys.alternativeNames(WithTags.from(Map.of("old_name", value))).getFirst());
+    }
+
+    @Test
+    public void featureWithoutAlternativeNamesHasNone() {
+        var keys = LanguageTagKeys.forDefault(ALTERNATIVE_NAME_TAGS);
+        assertNull(keys.alternativeNames(WithTags.from(Map.of("name", "X", "alt_name", " ; "))));
+    }
+}
@@ -0,0 +1,59 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Comparator;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.onthegomap.planetiler.geo.GeoUtils;
+
+@Tag("unit")
+public class MergeStageTest {
+
+    @Test
+    public void drainWaitsForAllMergesAndReturnsTheirPoints() {
+        try (var stage = new MergeStage(4)) {
+            for (int i = 0; i < 100; i++) {
+                long id = i;
+                stage.submit("group " + i, () -> {
+                    Thread.sleep(id % 3);
+                    stage.addTilePoint(GeoUtils.point(0.5, 0.5), id, PointTileAttributes.of(new PointDocument()));
+                });
+            }
+            var points = stage.drain();
+            assertEquals(100, points.size());
+            points.sort(Comparator.comparingLong(MergeStage.TilePoint::id));
+            assertEquals(0, points.getFirst().id());
+            assertEquals(99, points.getLast().id());
+            assertEquals(100, stage.getMergeTimes().count());
+            assertTrue(stage.drain().isEmpty());
+        }
+    }
+
+    @Test
+    public void failingMergeDoesNotStopTheOthers() {
+        try (var stage = new MergeStage(2)) {
+            stage.submit("broken", () -> {
+                throw new IllegalStateException("bad geometry");
+            });
+            stage.submit("fine", () -> stage.addTilePoint(GeoUtils.point(0.5, 0.5), 1, PointTileAttributes.of(new PointDocument())));
+            assertEquals(1, stage.drain().size());
+            assertEquals(2, stage.getMergeTimes().count());
+        }
+    }
+
+    @Test
+    public void mergeThatThrowsAnErrorDoesNotStopTheOthers() {
+        try (var stage = new MergeStage(1)) {
+            stage.submit("degenerate", () -> {
+                throw new StackOverflowError();
+            });
+            stage.submit("fine", () -> stage.addTilePoint(GeoUtils.point(0.5, 0.5), 1, PointTileAttributes.of(new PointDocument())));
+            assertEquals(1, stage.drain().size());
+            assertEquals(2, stage.getMergeTimes().count());
+        }
+    }
+}
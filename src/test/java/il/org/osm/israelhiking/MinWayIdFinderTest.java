@@ -1,15 +1,24 @@
 package il.org.osm.israelhiking;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Map;
 
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 
+import com.onthegomap.planetiler.geo.GeoUtils;
 import com.onthegomap.planetiler.geo.GeometryException;
 import com.onthegomap.planetiler.reader.SimpleFeature;
 import com.onthegomap.planetiler.reader.SourceFeature;
@@ -22,14 +31,37 @@ public class MinWayIdFinderTest {
                 new Coordinate(x1, y1),
                 new Coordinate(x2, y2)
         });
-        return SimpleFeature.create(line, Map.of(), "OSM", "Lines", id);
+        return SimpleFeature.create(line, Map.of("name", "way " + id), "OSM", "Lines", id);
+    }
+
+    @TempDir
+    Path tempDir;
+
+    private PendingWayStore store;
+
+    @BeforeEach
+    public void setUp() {
+        store = new PendingWayStore(tempDir);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        store.close();
+    }
+
+    private MinWayIdFinder finderOf(SourceFeature... features) throws GeometryException {
+        var finder = new MinWayIdFinder(store);
+        for (var feature : features) {
+            finder.addFeature(feature, feature.id() * 10);
+        }
+        return finder;
     }
 
     @Test
     public void shouldFindMinWayWhenAddingBackwards() throws GeometryException {
-        var finder = new MinWayIdFinder();
-        finder.features.add(makeLineFeature(7L, 0, 0, 1, 1));
-        finder.features.add(makeLineFeature(3L, 1, 1, 2, 2));
+        var finder = finderOf(
+                makeLineFeature(7L, 0, 0, 1, 1),
+                makeLineFeature(3L, 1, 1, 2, 2));
         var merged = finder.getMergedFeatures();
         assertEquals(1, merged.size());
         assertEquals(3L, merged.getFirst().minId);
@@ -37,9 +69,9 @@ public class MinWayIdFinderTest {
 
     @Test
     public void shouldFindMinWayWhenAddingForward() throws GeometryException {
-        var finder = new MinWayIdFinder();
-        finder.features.add(makeLineFeature(3L, 1, 1, 2, 2));
-        finder.features.add(makeLineFeature(7L, 0, 0, 1, 1)); // connects to above
+        var finder = finderOf(
+                makeLineFeature(3L, 1, 1, 2, 2),
+                makeLineFeature(7L, 0, 0, 1, 1));
         var merged = finder.getMergedFeatures();
         assertEquals(1, merged.size());
         assertEquals(3L, merged.getFirst().minId);
@@ -47,19 +79,19 @@ public class MinWayIdFinderTest {
 
     @Test
     public void shouldNotMergeDisconnectedFeatures() throws GeometryException {
-        var finder = new MinWayIdFinder();
-        finder.features.add(makeLineFeature(3L, 0, 0, 1, 1));
-        finder.features.add(makeLineFeature(7L, 2, 2, 3, 3));
+        var finder = finderOf(
+                makeLineFeature(3L, 0, 0, 1, 1),
+                makeLineFeature(7L, 2, 2, 3, 3));
         var merged = finder.getMergedFeatures();
         assertEquals(2, merged.size());
     }
 
     @Test
     public void shouldMergeMultipleConnectedFeatures() throws GeometryException {
-        var finder = new MinWayIdFinder();
-        finder.features.add(makeLineFeature(5L, 0, 0, 1, 1));
-        finder.features.add(makeLineFeature(2L, 2, 2, 3, 3));
-        finder.features.add(makeLineFeature(9L, 1, 1, 2, 2));
+        var finder = finderOf(
+                makeLineFeature(5L, 0, 0, 1, 1),
+                makeLineFeature(2L, 2, 2, 3, 3),
+                makeLineFeature(9L, 1, 1, 2, 2));
         var merged = finder.getMergedFeatures();
         assertEquals(1, merged.size());
         assertEquals(2L, merged.getFirst().minId);
@@ -67,13 +99,136 @@ public class MinWayIdFinderTest {
 
     @Test
     public void shouldMergeSelfClosingFeatures() throws GeometryException {
-        var finder = new MinWayIdFinder();
-        finder.features.add(makeLineFeature(5L, 0, 0, 1, 1));
-        finder.features.add(makeLineFeature(2L, 2, 2, 3, 3));
-        finder.features.add(makeLineFeature(9L, 1, 1, 2, 2));
-        finder.features.add(makeLineFeature(10L, 3, 3, 0, 0));
+        var finder = finderOf(
+                makeLineFeature(5L, 0, 0, 1, 1),
+                makeLineFeature(2L, 2, 2, 3, 3),
+                makeLineFeature(9L, 1, 1, 2, 2),
+                makeLineFeature(10L, 3, 3, 0, 0));
+        var merged = finder.getMergedFeatures();
+        assertEquals(1, merged.size());
+        assertEquals(2L, merged.getFirst().minId);
+    }
+
+    @Test
+    public void shouldCompleteOnlyWhenTheLastWayArrives() throws GeometryException {
+        var finder = new MinWayIdFinder(store);
+        finder.ids.add(3L);
+        finder.ids.add(7L);
+        assertFalse(finder.addFeature(makeLineFeature(7L, 0, 0, 1, 1), 70L));
+        assertTrue(finder.addFeature(makeLineFeature(3L, 1, 1, 2, 2), 30L));
+        var merged = finder.getMergedFeatures();
+        assertEquals(1, merged.size());
+        assertEquals(3L, merged.getFirst().minId);
+    }
+
+    @Test
+    public void shouldRestoreTheRepresentingWayFromTheStore() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(7L, 0, 0, 1, 1),
+                makeLineFeature(3L, 1, 1, 2, 2));
+        var merged = finder.getMergedFeatures().getFirst();
+        assertEquals("way 3", merged.representingTags.getString("name"));
+        assertEquals(30L, merged.representingTileFeatureId);
+    }
+
+    @Test
+    public void shouldStartWhereTheMergedLineStarts() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(7L, 0, 0, 1, 1),
+                makeLineFeature(3L, 1, 1, 2, 2));
+        var start = GeoUtils.worldToLatLonCoords(GeoUtils.point(finder.getMergedFeatures().getFirst().start))
+                .getCoordinate();
+        // (0, 0) is the only loose end where a way starts, even though way 7 is not the minimal way
+        assertEquals(0, start.x, 1e-6);
+        assertEquals(0, start.y, 1e-6);
+    }
+
+    @Test
+    public void shouldStartAtTheLooseStartOfTheMinimalWay() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(7L, 0, 0, 1, 1),
+                makeLineFeature(3L, 2, 2, 1, 1));
+        var start = GeoUtils.worldToLatLonCoords(GeoUtils.point(finder.getMergedFeatures().getFirst().start))
+                .getCoordinate();
+        // Both ways start at a loose end, so the minimal way's start wins
+        assertEquals(2, start.x, 1e-6);
+        assertEquals(2, start.y, 1e-6);
+    }
+
+    @Test
+    public void shouldStartAtAWayEndOnlyWhenNoWayStartIsLoose() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(7L, 1, 1, 0, 0),
+                makeLineFeature(3L, 1, 1, 2, 2));
+        var start = GeoUtils.worldToLatLonCoords(GeoUtils.point(finder.getMergedFeatures().getFirst().start))
+                .getCoordinate();
+        // Both ways start at the shared node, so the line starts at the end of the minimal way
+        assertEquals(2, start.x, 1e-6);
+        assertEquals(2, start.y, 1e-6);
+    }
+
+    @Test
+    public void shouldStartALoopAtTheMinimalWay() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(5L, 0, 0, 1, 1),
+                makeLineFeature(2L, 1, 1, 0, 1),
+                makeLineFeature(9L, 0, 1, 0, 0));
+        var merged = finder.getMergedFeatures();
+        assertEquals(1, merged.size());
+        var start = GeoUtils.worldToLatLonCoords(GeoUtils.point(merged.getFirst().start)).getCoordinate();
+        assertEquals(1, start.x, 1e-6);
+        assertEquals(1, start.y, 1e-6);
+    }
+
+    @Test
+    public void shouldMergeBranchingWaysIntoOneFeature() throws GeometryException {
+        var finder = finderOf(
+                makeLineFeature(5L, 0, 0, 1, 1),
+                makeLineFeature(2L, 1, 1, 2, 2),
+                makeLineFeature(9L, 1, 1, 2, 0));
         var merged = finder.getMergedFeatures();
         assertEquals(1, merged.size());
         assertEquals(2L, merged.getFirst().minId);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldMergeFarApartWaysOfOneNameSeparately() throws GeometryException {
+        // 10 degrees of longitude (~1100 km at the equator) apart, never connected
+        var finder = finderOf(
+                makeLineFeature(5L, 0, 0, 0.1, 0.1),
+                makeLineFeature(2L, 0.1, 0.1, 0.2, 0.2),
+                makeLineFeature(9L, 10, 0, 10.1, 0.1));
+        var merged = finder.getMergedFeatures();
+        assertEquals(2, merged.size());
+        assertEquals(2L, merged.stream().mapToLong(m -> m.minId).min().getAsLong());
+        assertEquals(9L, merged.stream().mapToLong(m -> m.minId).max().getAsLong());
+    }
+
+    @Test
+    public void shouldMergeALongChainOfWays() throws GeometryException {
+        // a chain of ways 0.5 degrees (~55 km) long each must become one line
+        var finder = finderOf(
+                makeLineFeature(4L, 0, 0, 0.5, 0),
+                makeLineFeature(3L, 0.5, 0, 1, 0),
+                makeLineFeature(2L, 1, 0, 1.5, 0),
+                makeLineFeature(1L, 1.5, 0, 2, 0));
+        var merged = finder.getMergedFeatures();
+        assertEquals(1, merged.size());
+        assertEquals(1L, merged.getFirst().minId);
+    }
+
+    @Test
+    public void storeDeletesItsFileOnClose() throws IOException {
+        var directory = tempDir.resolve("store");
+        var pending = new PendingWayStore(directory);
+        long offset = pending.append(new byte[] { 1, 2, 3 });
+        assertEquals(3, pending.read(offset).length);
+        try (var files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+        pending.close();
+        try (var files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package il.org.osm.israelhiking;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.onthegomap.planetiler.reader.WithTags;
+
+/**
+ * Classifies features whose tags follow the planet-wide key frequencies, so
+ * that the numbers reflect the unnamed buildings and roads that dominate a
+ * real build, and not only the POIs the golden tests are about. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=il.org.osm.israelhiking.OsmFeatureClassifierBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmFeatureClassifierBenchmark {
+
+    private static final int FEATURES = 16_384;
+
+    /**
+     * Feature kinds and their share of the features, rounded from the taginfo
+     * planet key counts: buildings and roads are the vast majority, POIs a tiny
+     * tail. The shares sum to 1.
+     */
+    private static final Object[][] DISTRIBUTION = {
+            { 0.43, new String[] { "building", "yes" } },
+            { 0.08, new String[] { "building", "house", "addr:housenumber", "12", "addr:street", "Main" } },
+            { 0.12, new String[] { "highway", "residential", "name", "Main street" } },
+            { 0.06, new String[] { "highway", "service" } },
+            { 0.05, new String[] { "highway", "track", "tracktype", "grade3" } },
+            { 0.03, new String[] { "highway", "footway", "surface", "paved" } },
+            { 0.06, new String[] { "landuse", "residential" } },
+            { 0.03, new String[] { "natural", "tree" } },
+            { 0.03, new String[] { "natural", "wood" } },
+            { 0.03, new String[] { "waterway", "stream", "name", "Nahal" } },
+            { 0.02, new String[] { "barrier", "fence" } },
+            { 0.02, new String[] { "power", "tower" } },
+            { 0.005, new String[] { "amenity", "place_of_worship", "religion", "christian", "name", "Church" } },
+            { 0.005, new String[] { "place", "village", "name", "Village", "population", "2000" } },
+            { 0.005, new String[] { "tourism", "viewpoint", "name", "View" } },
+            { 0.005, new String[] { "natural", "peak", "name", "Peak", "ele", "1208" } },
+            { 0.005, new String[] { "natural", "spring", "name", "Ein" } },
+            { 0.005, new String[] { "historic", "ruins", "name", "Horvat", "wikidata", "Q1" } },
+            { 0.01, new String[] { "shop", "supermarket", "name", "Shop" } },
+    };
+
+    private WithTags[] features;
+
+    @Setup
+    public void setUp() {
+        double total = 0;
+        for (Object[] kind : DISTRIBUTION) {
+            total += (double) kind[0];
+        }
+        if (Math.abs(total - 1) > 1e-9) {
+            throw new IllegalStateException("The feature shares sum to " + total + ", not 1");
+        }
+        var random = new Random(42);
+        features = new WithTags[FEATURES];
+        for (int i = 0; i < FEATURES; i++) {
+            double pick = random.nextDouble();
+            String[] kv = (String[]) DISTRIBUTION[DISTRIBUTION.length - 1][1];
+            double cumulative = 0;
+            for (Object[] kind : DISTRIBUTION) {
+                cumulative += (double) kind[0];
+                if (pick < cumulative) {
+                    kv = (String[]) kind[1];
+                    break;
+                }
+            }
+            Map<String, Object> tags = new HashMap<>();
+            for (int k = 0; k < kv.length; k += 2) {
+                tags.put(kv[k], kv[k + 1]);
+            }
+            features[i] = WithTags.from(tags);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FEATURES)
+    public void classify(Blackhole blackhole) {
+        for (WithTags feature : features) {
+            blackhole.consume(OsmFeatureClassifier.classify(feature));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FEATURES)
+    public void classifyNonIcon(Blackhole blackhole) {
+        for (WithTags feature : features) {
+            blackhole.consume(OsmFeatureClassifier.classifyNonIcon(feature));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OsmFeatureClassifierBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package il.org.osm.israelhiking;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link OsmNumberParser} with the regular expressions it replaced,
+ * on population and ele values as they appear in OSM. Run with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=il.org.osm.israelhiking.OsmNumberParserBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmNumberParserBenchmark {
+
+    private static final String[] VALUES = {
+            "4302", "1,234 m", "14115 ft", "5000 (2011)", "-430", "812.5", "12 000", "yes", "1200'", "3000" };
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void scan(Blackhole blackhole) {
+        for (String value : VALUES) {
+            blackhole.consume(OsmNumberParser.parsePopulation(value));
+            blackhole.consume(OsmNumberParser.parseElevation(value));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(10)
+    public void regex(Blackhole blackhole) {
+        for (String value : VALUES) {
+            blackhole.consume(RegexOsmNumberParser.parsePopulation(value));
+            blackhole.consume(RegexOsmNumberParser.parseElevation(value));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OsmNumberParserBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -4,10 +4,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.onthegomap.planetiler.reader.WithTags;
 
 @Tag("unit")
 public class OsmNumberParserTest {
@@ -91,4 +97,64 @@ public class OsmNumberParserTest {
     public void elevationRejectsNull() {
         assertFalse(OsmNumberParser.parseElevation(null).isPresent());
     }
+
+    @ParameterizedTest
+    @CsvSource({
+        "8, 8",
+        "2, 2",
+        "10, 10",
+    })
+    public void adminLevelParsesDigits(String raw, long expected) {
+        assertEquals(expected, OsmNumberParser.parseAdminLevel(WithTags.from(Map.of("admin_level", raw))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "4", "08", "11", " 4", "4.0", "abc", "" })
+    public void adminLevelMatchesGetLong(String raw) {
+        var feature = WithTags.from(Map.of("admin_level", raw));
+        assertEquals(feature.getLong("admin_level"), OsmNumberParser.parseAdminLevel(feature));
+    }
+
+    private static final String[] EDGE_CASES = {
+        "", " ", "-", "--5", "-.5", ".5", "5.", "5.x", "1.2.3", "1 2 3.45", "1,2,3.4 5", "12'3.5'",
+        "0", "-0", "00012", "-0.0", "0.1", "0.3", "1e5", "9007199254740993", "123456789012345678901",
+        "9223372036854775807", "9223372036854775808", "99999999999999999999 people",
+        "0.1234567890123456789", "1.7976931348623157", "12345678901234567.8", "1." + "0".repeat(25) + "1",
+        "ca. 300", "~ 1,200 m", "300–400", "1200 FT", "1200 Feet ", "1200 fOOt", "1200'  ", "12 ft.",
+        "١٢٣", "1٢3", "12\u00A0000", "\u0130 5 ft",
+    };
+
+    @Test
+    public void matchesTheRegularExpressionsOnEdgeCases() {
+        for (String raw : EDGE_CASES) {
+            assertSameAsRegex(raw);
+        }
+    }
+
+    @Test
+    public void matchesTheRegularExpressionsOnRandomValues() {
+        var random = new Random(7);
+        String alphabet = "0123456789 ,.'-+eEftmFT\u00A0x";
+        for (int n = 0; n < 200_000; n++) {
+            var raw = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int i = 0; i < length; i++) {
+                raw.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsRegex(raw.toString());
+        }
+    }
+
+    private static void assertSameAsRegex(String raw) {
+        assertEquals(RegexOsmNumberParser.parsePopulation(raw), OsmNumberParser.parsePopulation(raw),
+                "population of '" + raw + "'");
+        var expected = RegexOsmNumberParser.parseElevation(raw);
+        var actual = OsmNumberParser.parseElevation(raw);
+        assertEquals(expected.isPresent(), actual.isPresent(), "elevation of '" + raw + "'");
+        if (expected.isPresent()) {
+            // bit for bit, -0.0 included
+            assertEquals(Double.doubleToRawLongBits(expected.getAsDouble()),
+                    Double.doubleToRawLongBits(actual.getAsDouble()), "elevation of '" + raw + "'");
+        }
+    }
 }
@@ -0,0 +1,73 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.carrotsearch.hppc.LongArrayList;
+import com.onthegomap.planetiler.FeatureCollector;
+import com.onthegomap.planetiler.config.PlanetilerConfig;
+import com.onthegomap.planetiler.geo.GeoUtils;
+import com.onthegomap.planetiler.reader.osm.OsmElement;
+import com.onthegomap.planetiler.stats.Stats;
+
+@Tag("unit")
+public class PlanetSearchProfileTest {
+
+    @Test
+    public void finishEmitsTheMergedPointsWithTheirAttributes() {
+        var config = PlanetilerConfig.defaults();
+        var profile = new PlanetSearchProfile(config, new String[] { "en", "he" },
+                CompletableFuture.completedFuture(null));
+        try {
+            var pointDocument = new PointDocument();
+            pointDocument.name.put("en", "Jesus Trail");
+            pointDocument.name.put("default", "שביל ישו");
+            pointDocument.description.put("he", "תיאור");
+            pointDocument.poiCategory = "Hiking";
+            pointDocument.poiIcon = "icon-hike";
+            pointDocument.poiLength = 1234.5;
+            pointDocument.wikidata = "Q6188591";
+            var point = GeoUtils.point(GeoUtils.latLonToWorldCoords(GeoUtils.point(35.5, 32.8)).getCoordinate());
+            profile.mergeStage.addTilePoint(point, 42, PointTileAttributes.of(pointDocument));
+
+            var emitted = new ArrayList<FeatureCollector.Feature>();
+            profile.finish("osm", new FeatureCollector.Factory(config, Stats.inMemory()), emitted::add);
+
+            assertEquals(1, emitted.size());
+            var feature = emitted.getFirst();
+            assertEquals(PlanetSearchProfile.POINTS_LAYER_NAME, feature.getLayer());
+            assertEquals(42, feature.getId());
+            Map<String, Object> attrs = feature.getAttrsAtZoom(14);
+            assertEquals("Jesus Trail", attrs.get("name:en"));
+            assertEquals("שביל ישו", attrs.get("name"));
+            assertEquals("תיאור", attrs.get("description:he"));
+            assertEquals("Hiking", attrs.get("poiCategory"));
+            assertEquals("icon-hike", attrs.get("poiIcon"));
+            assertEquals(1234.5, attrs.get("poiLength"));
+            assertEquals("Q6188591", attrs.get("wikidata"));
+        } finally {
+            profile.release();
+        }
+    }
+
+    @Test
+    public void firstPassFailsOnceAStartupStepFailed() {
+        var failure = new IllegalArgumentException("bad --qrank-path");
+        var profile = new PlanetSearchProfile(PlanetilerConfig.defaults(), new String[] { "en" },
+                CompletableFuture.failedFuture(failure));
+        try {
+            var way = new OsmElement.Way(1, Map.of("highway", "path", "name", "Trail"), new LongArrayList());
+            assertSame(failure, assertThrows(IllegalArgumentException.class, () -> profile.preprocessOsmWay(way)));
+        } finally {
+            profile.release();
+        }
+    }
+}
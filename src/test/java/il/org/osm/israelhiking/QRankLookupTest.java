@@ -2,13 +2,18 @@ package il.org.osm.israelhiking;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Tag;
@@ -105,4 +110,74 @@ public class QRankLookupTest {
         assertThrows(IllegalArgumentException.class, () -> QRankLookup.load(gz),
                 "a truncated/partial qrank.csv.gz must fail fast, not load a partial ranking");
     }
+
+    @Test
+    public void convertsTheCsvOnceAndMapsTheCacheAfterwards(@TempDir Path dir) throws IOException {
+        Path gz = writeGzip(dir, "Entity,QRank\nQ42,1000000\nQ7,42\n");
+        QRankLookup.load(gz);
+        Path cache = QRankLookup.cachePath(gz);
+        assertTrue(Files.exists(cache), "the first load must leave the binary cache next to the csv");
+        var old = FileTime.fromMillis(1_000_000);
+        Files.setLastModifiedTime(cache, old);
+
+        var lookup = QRankLookup.load(gz);
+
+        assertEquals(old, Files.getLastModifiedTime(cache), "an up to date cache must be reused, not rewritten");
+        assertEquals(2, lookup.size());
+        assertEquals(1000000, lookup.qrankFor("Q42"));
+        assertEquals(42, lookup.qrankFor("Q7"));
+    }
+
+    @Test
+    public void changedCsvIsConvertedAgain(@TempDir Path dir) throws IOException {
+        Path gz = writeGzip(dir, "Entity,QRank\nQ42,1000000\n");
+        assertEquals(1000000, QRankLookup.load(gz).qrankFor("Q42"));
+
+        writeGzip(dir, "Entity,QRank\nQ42,5\nQ43,6\nQ44,7\n");
+        var lookup = QRankLookup.load(gz);
+
+        assertEquals(3, lookup.size());
+        assertEquals(5, lookup.qrankFor("Q42"));
+        assertEquals(7, lookup.qrankFor("Q44"));
+    }
+
+    @Test
+    public void damagedCacheIsRebuilt(@TempDir Path dir) throws IOException {
+        Path gz = writeGzip(dir, "Entity,QRank\nQ1,10\nQ2,20\n");
+        QRankLookup.load(gz);
+        Path cache = QRankLookup.cachePath(gz);
+        byte[] full = Files.readAllBytes(cache);
+        Files.write(cache, Arrays.copyOf(full, full.length - 3));
+
+        var lookup = QRankLookup.load(gz);
+
+        assertEquals(20, lookup.qrankFor("Q2"));
+        assertEquals(full.length, Files.size(cache));
+    }
+
+    @Test
+    public void duplicateQidKeepsTheLastRank(@TempDir Path dir) throws IOException {
+        var lookup = QRankLookup.load(writeGzip(dir, "Entity,QRank\nQ7,1\nQ7,2\n"));
+        assertEquals(1, lookup.size());
+        assertEquals(2, lookup.qrankFor("Q7"));
+    }
+
+    @Test
+    public void binarySearchFindsEveryRowAndNothingBetween(@TempDir Path dir) throws IOException {
+        var random = new Random(46);
+        Map<Long, Integer> expected = new HashMap<>();
+        var csv = new StringBuilder("Entity,QRank\n");
+        for (int i = 0; i < 5_000; i++) {
+            long qid = 1 + random.nextInt(200_000);
+            int rank = random.nextInt(10_000_000);
+            expected.put(qid, rank);
+            csv.append('Q').append(qid).append(',').append(rank).append('\n');
+        }
+        var lookup = QRankLookup.load(writeGzip(dir, csv.toString()));
+
+        assertEquals(expected.size(), lookup.size());
+        for (long qid = 0; qid <= 200_001; qid++) {
+            assertEquals(expected.getOrDefault(qid, 0).intValue(), lookup.qrankFor(qid), "Q" + qid);
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import com.onthegomap.planetiler.geo.GeometryException;
+import com.onthegomap.planetiler.reader.SimpleFeature;
+import com.onthegomap.planetiler.reader.SourceFeature;
+
+import il.org.osm.israelhiking.OsmFeatureClassifier.Category;
+
+@Tag("unit")
+public class RelationInfoTest {
+
+    private static final Set<String> KEPT_TAG_KEYS = PlanetSearchProfile.documentTagKeys(
+            LanguageTagKeys.forLanguages(new String[] { "en", "he" }, List.of("alt_name")),
+            LanguageTagKeys.forDefault(List.of("alt_name")));
+
+    private static RelationInfo relation(long[] ways, long[] relations) {
+        return new RelationInfo(1, Category.ROUTE_HIKING, Map.of("name", "Trail", "route", "hiking"), KEPT_TAG_KEYS,
+                ways, relations);
+    }
+
+    /** A member way whose nodes are missing, so that it has no geometry. */
+    private static SourceFeature brokenWay(long id) {
+        return new SourceFeature(Map.of(), "osm", null, List.of(), id) {
+            @Override
+            public Geometry worldGeometry() throws GeometryException {
+                throw new GeometryException("osm_missing_nodes", "way " + id + " has no nodes");
+            }
+
+            @Override
+            public Geometry latLonGeometry() throws GeometryException {
+                return worldGeometry();
+            }
+
+            @Override
+            public boolean isPoint() {
+                return false;
+            }
+
+            @Override
+            public boolean canBePolygon() {
+                return false;
+            }
+
+            @Override
+            public boolean canBeLine() {
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void completesOnTheLastDistinctMember() {
+        var info = relation(new long[] { 30, 10, 20, 10 }, new long[] { 5, 5 });
+        assertArrayEquals(new long[] { 5 }, info.relationMembers);
+        assertFalse(info.memberReached());
+        assertFalse(info.memberReached());
+        assertFalse(info.memberReached());
+        assertTrue(info.memberReached(), "3 distinct ways and 1 distinct relation");
+    }
+
+    @Test
+    public void exactlyOneThreadCompletesTheRelation() throws InterruptedException {
+        int members = 10_000;
+        long[] ways = LongStream.range(0, members).toArray();
+        var info = relation(ways, new long[0]);
+        var completions = new AtomicInteger();
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            var thread = new Thread(() -> {
+                for (int i = 0; i < members / 4; i++) {
+                    if (info.memberReached()) {
+                        completions.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, completions.get());
+    }
+
+    @Test
+    public void wayWithoutAGeometryIsCountedWithoutItsLengthAndEnds() throws GeometryException {
+        var info = relation(new long[] { 10, 20 }, new long[0]);
+        assertFalse(info.wayReached(brokenWay(10)));
+        assertNull(info.firstMember);
+        assertEquals(0, info.length.sum());
+
+        var line = new GeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(0.5, 0.5), new Coordinate(0.5001, 0.5001) });
+        var way = SimpleFeature.fromWorldGeometry(line, 20);
+        assertTrue(info.wayReached(way), "the broken way does not hold the relation back");
+        assertNotNull(info.secondMember);
+        assertEquals(way.lengthMeters(), info.length.sum(), 1e-9);
+    }
+
+    @Test
+    public void firstMembersKeepTheOrderOfTheRelation() {
+        var info = relation(new long[] { 30, 10 }, new long[0]);
+        assertEquals(30, info.firstMemberId);
+        assertEquals(10, info.secondMemberId);
+
+        var superRelation = relation(new long[0], new long[] { 7 });
+        assertEquals(7, superRelation.firstMemberId);
+        assertEquals(-1, superRelation.secondMemberId);
+    }
+
+    @Test
+    public void keepsOnlyTheTagsOfTheDocument() {
+        var tags = new RelationInfo(1, Category.ROUTE_HIKING, Map.of(
+                "name", "Trail",
+                "name:he", "שביל",
+                "alt_name:en", "Path",
+                "description:en", "A trail",
+                "wikidata", "Q1",
+                "sac_scale", "hiking",
+                "route", "hiking",
+                "type", "route",
+                "operator", "KKL",
+                "name:fr", "Sentier"), KEPT_TAG_KEYS, new long[] { 1 }, new long[0]).tags();
+        assertEquals("Trail", tags.getString("name"));
+        assertEquals("שביל", tags.getString("name:he"));
+        assertEquals("Path", tags.getString("alt_name:en"));
+        assertEquals("A trail", tags.getString("description:en"));
+        assertEquals("Q1", tags.getString("wikidata"));
+        assertEquals("hiking", tags.getString("sac_scale"));
+        assertEquals(6, tags.tags().size(), "route, type, operator and an unsupported language are dropped");
+    }
+
+    @Test
+    public void memberEndsAreTheFirstAndLastCoordinates() {
+        var line = new GeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(0, 0), new Coordinate(1, 1), new Coordinate(2, 0) });
+        var ends = RelationInfo.MemberEnds.of(line);
+        assertEquals(new Coordinate(0, 0), ends.start());
+        assertEquals(new Coordinate(2, 0), ends.end());
+    }
+}
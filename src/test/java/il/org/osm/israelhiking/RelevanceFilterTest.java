@@ -0,0 +1,52 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.onthegomap.planetiler.reader.WithTags;
+
+@Tag("unit")
+public class RelevanceFilterTest {
+
+    private final RelevanceFilter filter = new RelevanceFilter(
+            LanguageTagKeys.forLanguages(new String[] { "he", "en" }, List.of("alt_name")),
+            LanguageTagKeys.forDefault(List.of("alt_name")));
+
+    private boolean relevant(Map<String, Object> tags) {
+        return filter.hasRelevantTags(WithTags.from(tags));
+    }
+
+    @Test
+    public void unnamedBuildingsAndRoadsAreNotRelevant() {
+        assertFalse(relevant(Map.of("building", "yes")));
+        assertFalse(relevant(Map.of("highway", "residential", "surface", "asphalt")));
+        assertFalse(relevant(Map.of("name:fr", "Rue", "highway", "residential")), "not a supported language");
+    }
+
+    @Test
+    public void everyTagAHandlerUsesIsRelevant() {
+        assertTrue(relevant(Map.of("name", "X")));
+        assertTrue(relevant(Map.of("name:he", "X", "boundary", "administrative")));
+        assertTrue(relevant(Map.of("mtb:name", "X", "highway", "path")));
+        assertTrue(relevant(Map.of("wikidata", "Q1")));
+        assertTrue(relevant(Map.of("image", "x.jpg")));
+        assertTrue(relevant(Map.of("description", "X")));
+        assertTrue(relevant(Map.of("ref:IL:inature", "1")));
+    }
+
+    @Test
+    public void countsCheckedAndSkippedFeatures() {
+        relevant(Map.of("building", "yes"));
+        filter.skip();
+        relevant(Map.of("name", "X"));
+        assertEquals(2, filter.getChecked());
+        assertEquals(1, filter.getSkipped());
+    }
+}
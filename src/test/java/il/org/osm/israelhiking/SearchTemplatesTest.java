@@ -0,0 +1,149 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+@Tag("unit")
+public class SearchTemplatesTest {
+
+    private static final String[] LANGUAGES = { "default", "en", "he" };
+
+    /** The map center bias as the painless script of points_search computed it, per document. */
+    private static double scriptGeoScore(double lat, double lon, double zoom, double docLat, double docLon) {
+        double z = zoom <= 0 ? 12 : Math.min(zoom, 22);
+        double beta = 1.0 / (1.0 + Math.exp(-0.7 * (z - 8.0)));
+        double dsc = Math.max(8.0, Math.pow(2.2, 18 - z) * 0.1);
+        double d = arcDistanceKm(lat, lon, docLat, docLon);
+        double x = Math.max(0.0, d - 0.5);
+        return 1.0 * beta * Math.exp(-0.5 * (x * x) / (dsc * dsc));
+    }
+
+    private static double scriptViewportScore(double lat, double lon, double zoom, double docLat, double docLon) {
+        double z = zoom <= 0 ? 12 : Math.min(zoom, 22);
+        double beta = 1.0 / (1.0 + Math.exp(-0.7 * (z - 8.0)));
+        double offsetKm = Math.round(Math.pow(2.2, 18 - z) * 0.1 * 1000.0) / 1000.0;
+        double halfKm = Math.max(5.0, Math.min(400.0, offsetKm * 3.0));
+        double halfLat = halfKm / 111.0;
+        double cos = Math.max(0.2, Math.cos(lat * Math.PI / 180.0));
+        double halfLng = halfKm / (111.0 * cos);
+        double dLat = Math.abs(docLat - lat);
+        double dLng = Math.abs(((docLon - lon + 540.0) % 360.0) - 180.0);
+        return dLat <= halfLat && dLng <= halfLng ? 0.15 * beta * beta : 0.0;
+    }
+
+    private static double arcDistanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.pow(Math.sin(dLat / 2), 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.pow(Math.sin(dLon / 2), 2);
+        return 6371.0088 * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    /** What the gauss decay function computes, with the decay and offset of the template. */
+    private static double gaussScore(Map<String, Object> parameters, double docLat, double docLon) {
+        double scale = (double) parameters.get("geoScaleKm");
+        double x = Math.max(0.0, arcDistanceKm((double) parameters.get("lat"), (double) parameters.get("lng"),
+                docLat, docLon) - 0.5);
+        double sigmaSquared = -scale * scale / (2 * Math.log(0.6065306597126334));
+        return (double) parameters.get("geoWeight") * Math.exp(-x * x / (2 * sigmaSquared));
+    }
+
+    /** What the geo_bounding_box filter function computes, a box with left east of right wraps. */
+    private static double boxScore(Map<String, Object> parameters, double docLat, double docLon) {
+        double top = (double) parameters.get("viewportTop");
+        double bottom = (double) parameters.get("viewportBottom");
+        double left = (double) parameters.get("viewportLeft");
+        double right = (double) parameters.get("viewportRight");
+        boolean inLat = docLat <= top && docLat >= bottom;
+        boolean inLon = left <= right ? docLon >= left && docLon <= right : docLon >= left || docLon <= right;
+        return inLat && inLon ? (double) parameters.get("viewportWeight") : 0.0;
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "32.79, 34.99, 12",
+            "32.79, 34.99, 0",
+            "31.77, 35.21, 3",
+            "29.55, 34.95, 17",
+            "-41.29, 174.78, 8",
+            "65.0, 179.9, 6",
+            "-16.5, -179.95, 9",
+            "78.2, 15.6, 25"
+    })
+    public void centerParametersScoreLikeTheScript(double lat, double lng, double zoom) {
+        var parameters = SearchTemplates.centerParameters(lat, lng, zoom);
+        for (double dLat = -3; dLat <= 3; dLat += 0.05) {
+            for (double dLng = -3; dLng <= 3; dLng += 0.05) {
+                double docLat = Math.max(-90, Math.min(90, lat + dLat));
+                double docLon = ((lng + dLng + 540.0) % 360.0) - 180.0;
+                assertEquals(scriptGeoScore(lat, lng, zoom, docLat, docLon), gaussScore(parameters, docLat, docLon),
+                        1e-9, () -> "gauss at " + docLat + "," + docLon);
+                assertEquals(scriptViewportScore(lat, lng, zoom, docLat, docLon),
+                        boxScore(parameters, docLat, docLon), 1e-12, () -> "viewport at " + docLat + "," + docLon);
+            }
+        }
+    }
+
+    @Test
+    public void viewportAcrossTheAntimeridianWraps() {
+        var parameters = SearchTemplates.centerParameters(-16.5, 179.95, 12);
+        assertTrue((double) parameters.get("viewportLeft") > (double) parameters.get("viewportRight"));
+        assertTrue((double) parameters.get("viewportLeft") <= 180.0);
+        assertTrue((double) parameters.get("viewportRight") >= -180.0);
+    }
+
+    @ParameterizedTest
+    @CsvSource({ "points_search", "points_search_v2", "points_search_exact", "bbox_container", "bbox_contains" })
+    public void templatesUseOnlyPublishedParameters(String templateId) {
+        var used = SearchTemplates.parametersOf(SearchTemplates.render(templateId, LANGUAGES));
+        assertEquals(new TreeSet<>(SearchTemplates.PARAMETERS.get(templateId)), used);
+    }
+
+    @Test
+    public void pointsSearchV2TakesTheCenterParametersAndNoGeoScript() {
+        var template = SearchTemplates.render(SearchTemplates.POINTS_SEARCH_V2, LANGUAGES);
+        assertTrue(SearchTemplates.parametersOf(template)
+                .containsAll(SearchTemplates.centerParameters(32.79, 34.99, 12).keySet()));
+        assertFalse(template.contains("arcDistance"));
+    }
+
+    @Test
+    public void pointsSearchKeepsTheZoomContract() {
+        assertTrue(SearchTemplates.parametersOf(SearchTemplates.render(SearchTemplates.POINTS_SEARCH, LANGUAGES))
+                .contains("zoom"));
+    }
+
+    @Test
+    public void storingTheTemplatesOfThisBuildChangesNoContract() {
+        var rendered = SearchTemplates.renderAll(LANGUAGES);
+        assertEquals(List.of(), SearchTemplates.contractChanges(rendered, rendered));
+    }
+
+    @Test
+    public void droppingAParameterIsAContractChange() {
+        var v2 = SearchTemplates.render(SearchTemplates.POINTS_SEARCH_V2, LANGUAGES);
+        var stored = Map.of(SearchTemplates.POINTS_SEARCH, SearchTemplates.render(SearchTemplates.POINTS_SEARCH,
+                LANGUAGES));
+        assertEquals(List.of("points_search no longer accepts zoom"),
+                SearchTemplates.contractChanges(stored, Map.of(SearchTemplates.POINTS_SEARCH, v2)));
+        assertEquals(List.of(), SearchTemplates.contractChanges(Map.of(), Map.of(SearchTemplates.POINTS_SEARCH, v2)),
+                "a template that was not stored yet has no callers");
+    }
+
+    @Test
+    public void acceptingANewParameterIsNoContractChange() {
+        var stored = Map.of(SearchTemplates.BBOX_CONTAINS, "{\"query\": {{#toJson}}shape{{/toJson}}}");
+        assertEquals(List.of(), SearchTemplates.contractChanges(stored,
+                Map.of(SearchTemplates.BBOX_CONTAINS, "{\"query\": {{#toJson}}shape{{/toJson}}, \"size\": {{size}}}")));
+    }
+}
@@ -0,0 +1,85 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("unit")
+public class StartupStepsTest {
+
+    @Test
+    public void stepsRunConcurrently() {
+        var bothStarted = new CountDownLatch(2);
+        try (var steps = new StartupSteps()) {
+            StartupSteps.Step<Boolean> step = () -> {
+                bothStarted.countDown();
+                return bothStarted.await(10, TimeUnit.SECONDS);
+            };
+            var first = steps.start("first", step);
+            var second = steps.start("second", step);
+            assertTrue(StartupSteps.await(first), "each step waits for the other to start");
+            assertTrue(StartupSteps.await(second));
+        }
+    }
+
+    @Test
+    public void combinedStepsCompleteWithTheirResults() {
+        try (var steps = new StartupSteps()) {
+            var left = steps.start("left", () -> 20);
+            var right = steps.start("right", () -> 22);
+            assertEquals(42, StartupSteps.await(left.thenCombine(right, Integer::sum)));
+        }
+    }
+
+    @Test
+    public void awaitRethrowsTheFailureOfAStep() {
+        var failure = new IllegalArgumentException("bad --qrank-path");
+        try (var steps = new StartupSteps()) {
+            var failed = steps.<String>start("failing", () -> {
+                throw failure;
+            });
+            var combined = CompletableFuture.allOf(failed, steps.start("other", () -> 1));
+            assertSame(failure, assertThrows(IllegalArgumentException.class, () -> StartupSteps.await(failed)));
+            assertSame(failure, assertThrows(IllegalArgumentException.class, () -> StartupSteps.await(combined)));
+        }
+    }
+
+    @Test
+    public void checkedFailuresAreWrapped() {
+        var failure = new IOException("no such index");
+        try (var steps = new StartupSteps()) {
+            var failed = steps.<String>start("failing", () -> {
+                throw failure;
+            });
+            var thrown = assertThrows(IllegalStateException.class, () -> StartupSteps.await(failed));
+            assertSame(failure, thrown.getCause());
+        }
+    }
+
+    @Test
+    public void throwIfAnyFailedRethrowsOnlyWhatAlreadyFailed() throws InterruptedException {
+        var failure = new IllegalArgumentException("bad --qrank-path");
+        var release = new CountDownLatch(1);
+        try (var steps = new StartupSteps()) {
+            var running = steps.start("running", () -> release.await(10, TimeUnit.SECONDS));
+            steps.throwIfAnyFailed();
+            var failed = steps.<String>start("failing", () -> {
+                throw failure;
+            });
+            assertThrows(IllegalArgumentException.class, () -> StartupSteps.await(failed));
+            assertSame(failure, assertThrows(IllegalArgumentException.class, steps::throwIfAnyFailed));
+            assertFalse(running.isDone(), "the running step was not waited for");
+            release.countDown();
+        }
+    }
+}
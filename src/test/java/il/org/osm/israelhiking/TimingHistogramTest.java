@@ -0,0 +1,43 @@
+package il.org.osm.israelhiking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("unit")
+public class TimingHistogramTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    public void bucketsArePowersOfTwoMilliseconds() {
+        assertEquals(0, TimingHistogram.bucket(0));
+        assertEquals(1, TimingHistogram.bucket(1));
+        assertEquals(2, TimingHistogram.bucket(2));
+        assertEquals(2, TimingHistogram.bucket(3));
+        assertEquals(3, TimingHistogram.bucket(4));
+        assertEquals(TimingHistogram.BUCKETS - 1, TimingHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void quantilesSeeTheLongTail() {
+        var histogram = new TimingHistogram("test");
+        for (int i = 0; i < 98; i++) {
+            histogram.record(MILLIS / 2);
+        }
+        histogram.record(100 * MILLIS);
+        histogram.record(3000 * MILLIS);
+        assertEquals(100, histogram.count());
+        assertEquals(1, histogram.quantileMillis(0.5));
+        assertEquals(128, histogram.quantileMillis(0.99));
+        assertEquals(3000, histogram.maxMillis());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        var histogram = new TimingHistogram("test");
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.quantileMillis(0.5));
+    }
+}